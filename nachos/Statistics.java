@@ -65,6 +65,51 @@ public class Statistics {
   /** Number of virtual memory page faults. */
   public int numPageFaults;
 
+  /** Number of pages read in from the swap area. */
+  public int numSwapIns;
+
+  /** Number of pages written out to the swap area. */
+  public int numSwapOuts;
+
+  /** Number of page faults satisfied by mapping a shared text page. */
+  public int numSharedText;
+
+  /** Number of pages evicted by the page-out daemon. */
+  public int numReclaimed;
+
+  /** Number of pages read in from mapped files. */
+  public int numMappedIns;
+
+  /** Number of pages written back to mapped files. */
+  public int numMappedOuts;
+
+  /** Number of frames freed by merging identical pages. */
+  public int numPagesMerged;
+
+  /** Most frames saved by page merging at any one time. */
+  public int maxFramesSaved;
+
+  /** Number of pages deflated into the swap cache. */
+  public int numSwapCacheStores;
+
+  /** Number of swap reads satisfied by the swap cache. */
+  public int numSwapCacheHits;
+
+  /** Number of swap reads that went to the disk. */
+  public int numSwapCacheMisses;
+
+  /** Number of pages spilled from the swap cache to the disk. */
+  public int numSwapCacheSpills;
+
+  /** Bytes deflated into the swap cache, before and after compression. */
+  public long swapCacheBytesIn, swapCacheBytesOut;
+
+  /** Number of swap page transfers made on the disk, with a swap cache. */
+  public int numSwapDiskTransfers;
+
+  /** Ticks taken by those transfers. */
+  public long swapDiskTicks;
+
   /** Number of packets sent over the network. */
   public int numPacketsSent;
 
@@ -79,6 +124,12 @@ public class Statistics {
     numDiskReads = numDiskWrites = 0;
     numConsoleCharsRead = numConsoleCharsWritten = 0;
     numPageFaults = numPacketsSent = numPacketsRecvd = 0;
+    numSwapIns = numSwapOuts = numSharedText = numReclaimed = 0;
+    numMappedIns = numMappedOuts = 0;
+    numPagesMerged = maxFramesSaved = 0;
+    numSwapCacheStores = numSwapCacheHits = numSwapCacheMisses = 0;
+    numSwapCacheSpills = numSwapDiskTransfers = 0;
+    swapCacheBytesIn = swapCacheBytesOut = swapDiskTicks = 0;
   }
 
   /**
@@ -95,7 +146,33 @@ public class Statistics {
     Debug.printf('+', "Console I/O: reads %d, writes %d\n", 
 		 new Integer(numConsoleCharsRead), 
 		 new Integer(numConsoleCharsWritten));
-    Debug.printf('+', "Paging: faults %d\n", new Integer(numPageFaults));
+    Debug.printf('+', "Paging: faults %d, swap ins %d, swap outs %d, "
+		 + "shared text %d, reclaimed %d\n",
+		 new Object[] {
+		   Integer.valueOf(numPageFaults), Integer.valueOf(numSwapIns),
+		   Integer.valueOf(numSwapOuts), Integer.valueOf(numSharedText),
+		   Integer.valueOf(numReclaimed) });
+    Debug.printf('+', "Mapped files: pages read %d, written %d\n",
+		 Integer.valueOf(numMappedIns), Integer.valueOf(numMappedOuts));
+    Debug.printf('+', "Page merging: frames freed %d, most saved at once %d\n",
+		 Integer.valueOf(numPagesMerged), Integer.valueOf(maxFramesSaved));
+    if (numSwapCacheStores + numSwapCacheMisses > 0) {
+      // A hit saves a disk read, and a store never spilled a write,
+      // each costing what the transfers that were made cost on average.
+      int numReads = numSwapCacheHits + numSwapCacheMisses;
+      int numSaved = numSwapCacheHits + numSwapCacheStores
+	- numSwapCacheSpills;
+      Debug.print('+', String.format
+		  ("Swap cache: stored %d, hits %d (%.1f%%), misses %d, "
+		   + "spilled %d, compression %.2f:1, ticks saved %s\n",
+		   numSwapCacheStores, numSwapCacheHits,
+		   numReads == 0 ? 0.0 : 100.0 * numSwapCacheHits / numReads,
+		   numSwapCacheMisses, numSwapCacheSpills,
+		   swapCacheBytesOut == 0 ? 0.0
+		   : (double)swapCacheBytesIn / swapCacheBytesOut,
+		   numSwapDiskTransfers == 0 ? "n/a (no disk transfers)"
+		   : "~" + (numSaved * swapDiskTicks / numSwapDiskTransfers)));
+    }
     Debug.printf('+', "Network I/O: packets received %d, sent %d\n", 
 		 new Integer(numPacketsRecvd), new Integer(numPacketsSent));
 
@@ -0,0 +1,201 @@
+// HostProfiler.java
+//	Wall-clock timers for measuring where the host JVM spends its
+//	time while running the Nachos kernel.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel;
+
+/**
+ * Simulated ticks say nothing about how long the simulation itself
+ * takes to run: debugging string construction, byte-by-byte copying,
+ * or bitmap scans can dominate the host's time without costing a single
+ * tick.  This class provides lightweight scoped timers, based on
+ * System.nanoTime(), that are placed around the major kernel entry
+ * points, so that we can see where the simulator's own time goes.
+ *
+ * Usage is:
+ *
+ *	long t = HostProfiler.start();
+ *	... code being measured ...
+ *	HostProfiler.stop(HostProfiler.SYSCALL, t);
+ *
+ * Timing is enabled by the -hprof command-line option; otherwise
+ * start() and stop() do nothing but test a flag.  The report is
+ * printed when the machine halts.
+ *
+ * Time during which the measuring thread was switched out (blocked
+ * waiting for a disk interrupt, for example) is not charged to the
+ * scope, because the Scheduler tells us, through suspend() and
+ * resume(), when each thread gives up and regains the CPU.
+ * Scopes may nest (a console driver call within a system call, say),
+ * and the time of an inner scope is included in the enclosing one.
+ */
+public class HostProfiler {
+
+  /** Entry point: context switch in the scheduler. */
+  public static final int SWITCH = 0;
+
+  /** Entry point: system call dispatch. */
+  public static final int SYSCALL = 1;
+
+  /** Entry point: file system naming operation (create, open, remove). */
+  public static final int FILESYS = 2;
+
+  /** Entry point: read or write of an open file. */
+  public static final int FILEIO = 3;
+
+  /** Entry point: disk driver sector read or write. */
+  public static final int DISK = 4;
+
+  /** Entry point: console driver character input or output. */
+  public static final int CONSOLE = 5;
+
+  /** Entry point: page fault handling. */
+  public static final int PAGEFAULT = 6;
+
+  /** Printable names of the entry points. */
+  private static final String names[] = {
+    "scheduler switch", "syscall dispatch", "filesys naming",
+    "file read/write", "disk driver", "console driver", "page fault"
+  };
+
+  /** Number of entry points. */
+  private static final int NumPoints = names.length;
+
+  /** Is timing enabled? */
+  private static boolean enabled = false;
+
+  /** Number of times each entry point was timed. */
+  private static long counts[] = new long[NumPoints];
+
+  /** Total nanoseconds spent in each entry point. */
+  private static long totalNanos[] = new long[NumPoints];
+
+  /** Longest single interval spent in each entry point. */
+  private static long maxNanos[] = new long[NumPoints];
+
+  /** Measured cost, in nanoseconds, of one start()/stop() pair. */
+  private static double overheadNanos;
+
+  /**
+   * Host time during which each Java thread (and so each NachosThread)
+   * has been switched out, and the time at which it was last switched
+   * out.
+   */
+  private static ThreadLocal<long[]> suspended = new ThreadLocal<long[]>() {
+    protected long[] initialValue() {
+      return new long[2];
+    }
+  };
+
+  /**
+   * Process command-line arguments, to see whether timing has been
+   * requested.  If so, measure the cost of the timers themselves and
+   * arrange for the report to be printed when Nachos exits.
+   *
+   * @param args Command-line arguments.
+   */
+  public static void init(String[] args) {
+    for (int i=0; i<args.length; i++) {
+      if (args[i].equals("-hprof"))
+	enabled = true;
+    }
+    if (!enabled)
+      return;
+
+    calibrate();
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+	public void run() {
+	  report();
+	}
+      });
+  }
+
+  /**
+   * Begin timing a scope.
+   *
+   * @return A start time, to be passed to stop().
+   */
+  public static long start() {
+    if (!enabled)
+      return 0;
+    return System.nanoTime() - suspended.get()[0];
+  }
+
+  /**
+   * Finish timing a scope, charging the time since the corresponding
+   * call to start() (less any time the thread spent switched out)
+   * to an entry point.
+   *
+   * @param point The entry point.
+   * @param startTime The value returned by start().
+   */
+  public static void stop(int point, long startTime) {
+    if (!enabled)
+      return;
+    long elapsed = System.nanoTime() - suspended.get()[0] - startTime;
+    counts[point]++;
+    totalNanos[point] += elapsed;
+    if (elapsed > maxNanos[point])
+      maxNanos[point] = elapsed;
+  }
+
+  /**
+   * Called by the Scheduler just before the current thread gives up
+   * the CPU.
+   */
+  public static void suspend() {
+    if (enabled)
+      suspended.get()[1] = System.nanoTime();
+  }
+
+  /**
+   * Called by the Scheduler when a thread that called suspend() gets
+   * the CPU back.
+   */
+  public static void resume() {
+    if (enabled) {
+      long s[] = suspended.get();
+      s[0] += System.nanoTime() - s[1];
+    }
+  }
+
+  /**
+   * Estimate the cost of one start()/stop() pair.
+   */
+  private static void calibrate() {
+    final int trials = 100000;
+    long begin = System.nanoTime();
+    for (int i = 0; i < trials; i++)
+      stop(SWITCH, start());
+    overheadNanos = (double)(System.nanoTime() - begin) / trials;
+    counts[SWITCH] = totalNanos[SWITCH] = maxNanos[SWITCH] = 0;
+  }
+
+  /**
+   * Print the time spent in each entry point, and the estimated
+   * overhead of measuring it.
+   */
+  public static void report() {
+    long scopes = 0;
+    System.out.println("\nHost time by kernel entry point:");
+    System.out.println
+      ("  entry point            calls     total ms    avg us    max us");
+    for (int i = 0; i < NumPoints; i++) {
+      scopes += counts[i];
+      if (counts[i] == 0)
+	continue;
+      System.out.println
+	(String.format("  %-18s %9d %12.3f %9.3f %9.3f", names[i], counts[i],
+		       totalNanos[i] / 1e6, totalNanos[i] / 1e3 / counts[i],
+		       maxNanos[i] / 1e3));
+    }
+    System.out.println
+      (String.format("  measurement overhead: %.1f ns per scope, "
+		     + "%.3f ms total", overheadNanos,
+		     overheadNanos * scopes / 1e6));
+  }
+}
@@ -0,0 +1,184 @@
+// KernelEvents.java
+//	Hooks through which the kernel reports its activity to a profiler.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel;
+
+import nachos.Debug;
+import nachos.machine.NachosThread;
+
+/**
+ * When the JVM running Nachos is profiled with Java Flight Recorder
+ * (for example, by running java with -XX:StartFlightRecording), the
+ * recording shows where the host spends its time, but not what the
+ * simulated kernel was doing at the time.  The kernel therefore reports
+ * the interesting operations -- context switches, system calls, disk
+ * sector transfers, lock contention, and page faults -- through the
+ * static methods of this class, which pass them on to a Recorder.
+ *
+ * The Recorder that emits JFR events, nachos.kernel.jfr.FlightRecorder,
+ * is the only code that depends on the jdk.jfr API, which needs a JDK
+ * 11 or later host.  It is loaded by name when this class is
+ * initialized, and only if jdk.jfr.Event can be found; otherwise there
+ * is no recorder, and every method here does nothing.  So the rest of
+ * the kernel still compiles and runs on the JDK 1.7 that the course
+ * uses, with the nachos.kernel.jfr package left out of the build.
+ *
+ * Operations that take time (system calls, disk transfers, lock waits,
+ * page faults) are bracketed: the begin method returns an event, which
+ * must be handed back to the matching end method.  The event is
+ * opaque to the caller, and is null when nothing is being recorded.
+ */
+public class KernelEvents {
+
+  /**
+   * Something that records kernel events.  The begin methods return
+   * an event to be passed to the matching end method, or null if the
+   * operation is not being recorded, in which case the end method is
+   * not called.
+   */
+  public interface Recorder {
+    void contextSwitch(NachosThread from, NachosThread to);
+    Object beginSyscall(NachosThread thread, int type, String name);
+    void endSyscall(Object event);
+    Object beginDiskIO(int sector, boolean write);
+    void endDiskIO(Object event);
+    Object beginLockWait(String lock, NachosThread waiter,
+			 NachosThread owner);
+    void endLockWait(Object event);
+    Object beginPageFault(NachosThread thread, int vaddr);
+    void endPageFault(Object event);
+  }
+
+  /** Name of the class that emits JFR events. */
+  private static final String FlightRecorderClass =
+    "nachos.kernel.jfr.FlightRecorder";
+
+  /** The recorder, or null if there is none. */
+  private static final Recorder recorder = install();
+
+  /**
+   * Load the JFR recorder, if the host has the jdk.jfr API and the
+   * recorder was built.
+   *
+   * @return The recorder, or null.
+   */
+  private static Recorder install() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      Class<?> c = Class.forName(FlightRecorderClass);
+      Recorder r = (Recorder)c.getDeclaredConstructor().newInstance();
+      Debug.println('+', "KernelEvents: flight recorder events enabled");
+      return r;
+    } catch (ReflectiveOperationException e) {
+      return null;
+    } catch (LinkageError e) {
+      return null;
+    }
+  }
+
+  /**
+   * Record a context switch.  Called by the scheduler just before the
+   * CPU is handed from one thread to another.
+   *
+   * @param from The thread giving up the CPU.
+   * @param to The thread being given the CPU.
+   */
+  public static void contextSwitch(NachosThread from, NachosThread to) {
+    if (recorder != null)
+      recorder.contextSwitch(from, to);
+  }
+
+  /**
+   * Begin recording a system call.
+   *
+   * @param thread The calling thread.
+   * @param type The system call code.
+   * @param name The printable name of the system call.
+   * @return The event, to be passed to endSyscall().
+   */
+  public static Object beginSyscall(NachosThread thread, int type,
+				    String name) {
+    return recorder == null ? null
+      : recorder.beginSyscall(thread, type, name);
+  }
+
+  /**
+   * Finish recording a system call.
+   *
+   * @param event The event returned by beginSyscall().
+   */
+  public static void endSyscall(Object event) {
+    if (event != null)
+      recorder.endSyscall(event);
+  }
+
+  /**
+   * Begin recording a disk sector transfer.
+   *
+   * @param sector The sector being read or written.
+   * @param write True for a write, false for a read.
+   * @return The event, to be passed to endDiskIO().
+   */
+  public static Object beginDiskIO(int sector, boolean write) {
+    return recorder == null ? null : recorder.beginDiskIO(sector, write);
+  }
+
+  /**
+   * Finish recording a disk sector transfer.
+   *
+   * @param event The event returned by beginDiskIO().
+   */
+  public static void endDiskIO(Object event) {
+    if (event != null)
+      recorder.endDiskIO(event);
+  }
+
+  /**
+   * Begin recording a wait for a lock that is held by another thread.
+   *
+   * @param lock The name of the lock.
+   * @param waiter The thread that has to wait.
+   * @param owner The thread holding the lock.
+   * @return The event, to be passed to endLockWait().
+   */
+  public static Object beginLockWait(String lock, NachosThread waiter,
+				     NachosThread owner) {
+    return recorder == null ? null
+      : recorder.beginLockWait(lock, waiter, owner);
+  }
+
+  /**
+   * Finish recording a lock wait, once the lock has been acquired.
+   *
+   * @param event The event returned by beginLockWait().
+   */
+  public static void endLockWait(Object event) {
+    if (event != null)
+      recorder.endLockWait(event);
+  }
+
+  /**
+   * Begin recording the handling of a page fault.
+   *
+   * @param thread The faulting thread.
+   * @param vaddr The virtual address that caused the fault.
+   * @return The event, to be passed to endPageFault().
+   */
+  public static Object beginPageFault(NachosThread thread, int vaddr) {
+    return recorder == null ? null : recorder.beginPageFault(thread, vaddr);
+  }
+
+  /**
+   * Finish recording a page fault.
+   *
+   * @param event The event returned by beginPageFault().
+   */
+  public static void endPageFault(Object event) {
+    if (event != null)
+      recorder.endPageFault(event);
+  }
+}
@@ -13,11 +13,34 @@
 //         execution.  <seed> is the seed to a pseudo-random number generator.
 //         Re-execution with the same seed should produce the same results.
 //    -tl <time limit> halt the machine if totalTicks exceeds <time limit>
+//    -hprof measures the host (wall-clock) time spent in the major
+//         kernel entry points, and reports it when Nachos exits
 //    -z prints the copyright message
 //
 //  USER_PROGRAM (set USER_PROGRAM=true below before using these options!)
 //    -s causes user programs to be executed in single-step mode
-//    -x <nachos file> runs a user program
+//    -x <nachos file> runs a user program; -x may be repeated, to run
+//         several programs at once
+//    -prof samples the program counter of user programs, and prints
+//         a profile of each program when it exits
+//    -strace logs each system call made by user programs, and prints
+//         per-call counts and latency histograms when each program exits
+//    -fa times the physical frame allocator against the old bitmap one
+//    -swap uses the disk as swap space, so that pages can be evicted
+//         when memory fills up (needs the stub filesystem)
+//    -vm <policy> selects the page replacement policy: fifo, clock
+//         (the default), esc, aging, or wsclock
+//    -zc <pages> keeps swapped-out pages compressed in a cache of
+//         <pages> pages in memory, spilling to the disk when it is full
+//         (with -swap)
+//    -vmtrace <file> records a trace of the pages referenced by user
+//         programs in <file>
+//    -vmsim <file> replays a page trace against every replacement
+//         policy, and the optimal one, for a range of memory sizes
+//    -ps <bytes> sets the size of the buffer of each pipe (default 512)
+//    -pt tests the throughput of a pipe between two kernel threads
+//    -ksm merges identical user pages, copy-on-write, in a background
+//         kernel thread
 //    -c <consoleIn> <consoleOut> tests the console
 //         if omitted, consoleIn and consoleOut default to stdin and stdout
 //
@@ -45,6 +68,7 @@ package nachos.kernel;
 
 import nachos.Debug;
 import nachos.machine.Machine;
+import nachos.machine.Disk;
 import nachos.machine.NachosThread;
 import nachos.kernel.threads.Scheduler;
 import nachos.kernel.threads.test.ThreadTest;
@@ -57,8 +81,17 @@ import nachos.kernel.devices.SerialDriver;
 import nachos.kernel.devices.test.ConsoleTest;
 import nachos.kernel.devices.test.NetworkTest;
 import nachos.kernel.devices.test.SerialTest;
+import nachos.kernel.userprog.test.FrameAllocatorTest;
+import nachos.kernel.userprog.test.PipeTest;
 import nachos.kernel.userprog.test.ProgTest;
+import nachos.kernel.userprog.test.ReplacementTest;
 import nachos.kernel.userprog.ExceptionHandler;
+import nachos.kernel.userprog.PageTraceRecorder;
+import nachos.kernel.userprog.PageMerger;
+import nachos.kernel.userprog.Pager;
+import nachos.kernel.userprog.Pipe;
+import nachos.kernel.userprog.Profiler;
+import nachos.kernel.userprog.SyscallTracer;
 
 /**
  * The Nachos main class.  Nachos is "booted up" when a Java thread calls the
@@ -142,8 +175,12 @@ public void run() {
      * If we are going to be running user programs, then register
      * an exception handler.
      */
-      if(USER_PROGRAM)
+      if(USER_PROGRAM) {
 	Machine.setHandler(new ExceptionHandler());
+	Profiler.init(args);
+	SyscallTracer.init(args);
+	Pipe.init(args);
+      }
 
     /*
      * Initialize the console driver.
@@ -152,10 +189,24 @@ public void run() {
 
     /*
      * If we are going to be using the disk, then start the disk driver.
+     * The -swap option also needs it.  The swap area takes up the
+     * whole disk, so it requires the stub filesystem.
      */
-    if(DISK)
+    boolean swap = USER_PROGRAM
+      && java.util.Arrays.asList(args).contains("-swap");
+    if(DISK || swap)
 	diskDriver = new DiskDriver("DISK");
 
+    /*
+     * Set up the pager, with a swap area if we are going to be swapping.
+     */
+    if(USER_PROGRAM) {
+	Debug.ASSERT(!swap || FILESYS_STUB);
+	Pager.init(args, swap ? diskDriver : null, Disk.NumSectors);
+	PageTraceRecorder.init(args);
+	PageMerger.init(args);
+    }
+
     /*
      * If we are going to be using the network, then start the network driver.
      */
@@ -191,6 +242,9 @@ public void run() {
     if (USER_PROGRAM) {
       ProgTest.start(args);
       ConsoleTest.start(args);
+      FrameAllocatorTest.start(args);
+      ReplacementTest.start(args);
+      PipeTest.start(args);
     }
 
     if(FILESYS && !FILESYS_STUB)
@@ -222,6 +276,7 @@ public void run() {
      * Nachos thread is started.
      */
     Machine.init(args);
+    HostProfiler.init(args);
     Scheduler.init(args);
     /*
      * We are in the context of a Java thread, not a Nachos Thread.
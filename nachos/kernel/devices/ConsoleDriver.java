@@ -7,23 +7,95 @@
 package nachos.kernel.devices;
 
 import nachos.machine.Console;
+import nachos.machine.Interrupt;
+import nachos.kernel.HostProfiler;
 import nachos.kernel.threads.Lock;
-import nachos.kernel.threads.Scheduler;
+import nachos.kernel.threads.Semaphore;
 
 /**
  * This class provides for the initialization of the NACHOS console,
- * and gives NACHOS user programs a capability of outputting to the console.
- * Programmed I/O (PIO) mode is used to access the console device.
- * Students will rewrite this into a full-fledged interrupt-driven driver
- * that provides both input and output capabilities.
+ * and gives NACHOS user programs a capability of reading from and
+ * outputting to the console.  Both directions are interrupt-driven.
+ *
+ * Output: characters written are put into a ring buffer, and the
+ * console's write-complete interrupt handler sends the next character
+ * from the buffer to the device, so that a writer need not wait for its
+ * characters to be printed.  A writer blocks only if the buffer is full,
+ * until the handler has made room.
+ *
+ * Input: the console's read interrupt handler puts each character typed
+ * into another ring buffer, applying a "cooked mode" line discipline:
+ * characters are echoed, backspace (or delete) erases the last character
+ * of the line being typed, and a line becomes available to readers only
+ * once its newline (or carriage return, which is taken as a newline) has
+ * been typed.  A reader blocks until a whole line is available, and
+ * read() returns at most one line.  A line too long for the buffer is
+ * passed on in pieces.
+ *
+ * The stream console keeps the machine running (with a keep-alive timer)
+ * for as long as it is reading, so that Nachos would never find itself
+ * idle and halt.  Input is therefore opened only when something first
+ * reads from the console; from then on Nachos runs until it is halted,
+ * or the console is stopped.
  */
 public class ConsoleDriver {
+    /** Size of the output buffer, in characters. */
+    public static final int OutputBufferSize = 256;
+
+    /** Size of the input buffer, in characters. */
+    public static final int InputBufferSize = 256;
+
     /** Raw console device. */
     private Console console;
 
-    /** Lock used to ensure at most one thread trying to access at a time. */
+    /** Use the GUI console? */
+    private boolean useGUI;
+
+    /** Has the console been set up for input? */
+    private boolean inputOpen = false;
+
+    /** Lock held by a thread reading, so that reads are not interleaved. */
     private Lock lock;
 
+    /** Characters typed; the first inputReady of them are complete lines. */
+    private char inputBuffer[] = new char[InputBufferSize];
+
+    /** Index of the next character to be read. */
+    private int inputHead = 0;
+
+    /** Number of characters in the input buffer. */
+    private int inputCount = 0;
+
+    /** Number of characters in the input buffer that may be read. */
+    private int inputReady = 0;
+
+    /** Is a reader waiting for a line? */
+    private boolean inputWaiting = false;
+
+    /** Signalled when a line is made available to a waiting reader. */
+    private Semaphore inputLine;
+
+    /** Lock held by a thread writing, so that writes are not interleaved. */
+    private Lock outputLock;
+
+    /** Characters waiting to be output. */
+    private char outputBuffer[] = new char[OutputBufferSize];
+
+    /** Index of the next character to be output. */
+    private int outputHead = 0;
+
+    /** Number of characters in the output buffer. */
+    private int outputCount = 0;
+
+    /** Is the device busy printing a character? */
+    private boolean outputBusy = false;
+
+    /** Is a writer waiting for room in the output buffer? */
+    private boolean outputWaiting = false;
+
+    /** Signalled when room is made for a waiting writer. */
+    private Semaphore outputRoom;
+
     /**
      * Initialize the driver and the underlying physical device.
      *
@@ -31,49 +103,259 @@ public class ConsoleDriver {
      * console.
      */
     public ConsoleDriver(boolean useGUI) {
+	this.useGUI = useGUI;
 	lock = new Lock("console driver lock");
+	inputLine = new Semaphore("console input line", 0);
+	outputLock = new Lock("console output lock");
+	outputRoom = new Semaphore("console output room", 0);
 	if(useGUI) {
-	    console = Console.guiConsole();
+	    console = Console.guiConsole(new ReadHandler(), new WriteHandler());
+	    inputOpen = true;
 	} else {
-	    console = Console.streamConsole(null, null);
+	    console = Console.streamConsole(null, null,
+					    null, new WriteHandler());
 	}
     }
 
     /**
      * Wait for a character to be available from the console and then
-     * return the character.
+     * return the character.  As for read(), nothing is available until
+     * a whole line has been typed.
      */
     public char getChar() {
+	byte ch[] = new byte[1];
+	read(ch, 0, 1);
+	return (char)(ch[0] & 0xff);
+    }
+
+    /**
+     * Read characters typed at the console, waiting until a whole line
+     * is available.
+     *
+     * @param buffer Where to put the characters, one per byte.
+     * @param offset The index in buffer of the first character.
+     * @param length The maximum number of characters to read.
+     * @return The number of characters read: the rest of the next line,
+     * including its newline, or length if that is less.
+     */
+    public int read(byte buffer[], int offset, int length) {
+	long hostTime = HostProfiler.start();
 	lock.acquire();
-	while(!console.isInputAvail())
-	    Scheduler.yield();
-	char ch = console.getChar();
+	openInput();
+	int n = 0;
+	while(length > 0) {
+	    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+	    if(inputReady == 0) {
+		inputWaiting = true;
+		Interrupt.setLevel(oldLevel);
+		inputLine.P();		// until the handler completes a line
+		continue;
+	    }
+	    char ch = 0;
+	    while(n < length && inputReady > 0 && ch != '\n') {
+		ch = inputBuffer[inputHead];
+		inputHead = (inputHead + 1) % InputBufferSize;
+		inputCount--;
+		inputReady--;
+		buffer[offset + n++] = (byte)ch;
+	    }
+	    Interrupt.setLevel(oldLevel);
+	    break;
+	}
 	lock.release();
-	return ch;
+	HostProfiler.stop(HostProfiler.CONSOLE, hostTime);
+	return n;
+    }
+
+    /**
+     * Set the console up for input, if that has not been done, by
+     * replacing the output-only stream console with one that also has
+     * a read handler.  Called with the reader lock held.
+     */
+    private void openInput() {
+	if(inputOpen)
+	    return;
+	outputLock.acquire();
+	drain();			// nothing in flight on the old console
+	console.stop();
+	console = Console.streamConsole(null, null,
+					new ReadHandler(), new WriteHandler());
+	inputOpen = true;
+	outputLock.release();
     }
 
     /**
-     * Print a single character on the console.  If the console is already
-     * busy outputting a character, then wait for it to finish before
-     * attempting to output the new character.  A lock is employed to ensure
-     * that at most one thread at a time will attempt to print.
+     * Print a single character on the console.
      *
      * @param ch The character to be printed.
      */
     public void putChar(char ch) {
-	lock.acquire();
-	while(console.isOutputBusy())
-	    Scheduler.yield();
+	write(new byte[] { (byte)ch }, 0, 1);
+    }
+
+    /**
+     * Print characters on the console.  They are added to the output
+     * buffer, to be printed in the background, waiting for room in the
+     * buffer as necessary.  A lock is employed to ensure that the
+     * characters of one write are not interleaved with those of another.
+     *
+     * @param buffer The characters to be printed, one per byte.
+     * @param offset The index of the first character in buffer.
+     * @param length The number of characters.
+     */
+    public void write(byte buffer[], int offset, int length) {
+	long hostTime = HostProfiler.start();
+	outputLock.acquire();
+	int done = 0;
+	while(done < length) {
+	    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+	    int n = Math.min(length - done, OutputBufferSize - outputCount);
+	    for(int i = 0; i < n; i++) {
+		outputBuffer[(outputHead + outputCount) % OutputBufferSize]
+		    = (char)(buffer[offset + done + i] & 0xff);
+		outputCount++;
+	    }
+	    done += n;
+	    if(!outputBusy)
+		startOutput();
+	    boolean wait = done < length;
+	    if(wait)
+		outputWaiting = true;
+	    Interrupt.setLevel(oldLevel);
+	    if(wait)
+		outputRoom.P();		// until the handler makes room
+	}
+	outputLock.release();
+	HostProfiler.stop(HostProfiler.CONSOLE, hostTime);
+    }
+
+    /**
+     * Wait until all the characters written so far have been printed.
+     */
+    public void flush() {
+	outputLock.acquire();
+	drain();
+	outputLock.release();
+    }
+
+    /**
+     * Wait until the output buffer is empty and the device idle.
+     * Called with the output lock held.
+     */
+    private void drain() {
+	while(true) {
+	    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+	    boolean empty = outputCount == 0 && !outputBusy;
+	    if(!empty)
+		outputWaiting = true;
+	    Interrupt.setLevel(oldLevel);
+	    if(empty)
+		break;
+	    outputRoom.P();
+	}
+    }
+
+    /**
+     * Send the next character in the output buffer to the device.
+     * Called with interrupts disabled, when the device is idle.
+     */
+    private void startOutput() {
+	if(outputCount == 0) {
+	    outputBusy = false;
+	    return;
+	}
+	char ch = outputBuffer[outputHead];
+	outputHead = (outputHead + 1) % OutputBufferSize;
+	outputCount--;
+	outputBusy = true;
 	console.putChar(ch);
-	lock.release();
+    }
+
+    /**
+     * Echo a character typed, if there is room in the output buffer
+     * (otherwise it is not echoed).  Called with interrupts disabled.
+     *
+     * @param ch The character.
+     */
+    private void echo(char ch) {
+	if(outputCount == OutputBufferSize)
+	    return;
+	outputBuffer[(outputHead + outputCount) % OutputBufferSize] = ch;
+	outputCount++;
+	if(!outputBusy)
+	    startOutput();
+    }
+
+    /**
+     * Apply the line discipline to a character typed.  Called with
+     * interrupts disabled.
+     *
+     * @param ch The character.
+     */
+    private void cook(char ch) {
+	if(ch == '\b' || ch == 0177) {
+	    if(inputCount > inputReady) {	// erase only within the line
+		inputCount--;
+		echo('\b');
+		echo(' ');
+		echo('\b');
+	    }
+	    return;
+	}
+	if(ch == '\r')
+	    ch = '\n';
+	if(inputCount < InputBufferSize) {
+	    inputBuffer[(inputHead + inputCount) % InputBufferSize] = ch;
+	    inputCount++;
+	    echo(ch);
+	}
+	if(ch == '\n' || inputCount == InputBufferSize) {
+	    inputReady = inputCount;
+	    if(inputWaiting) {
+		inputWaiting = false;
+		inputLine.V();
+	    }
+	}
     }
 
     /**
      * Stop the console device.
      */
     public void stop() {
+	flush();
 	lock.acquire();
 	console.stop();
 	lock.release();
     }
+
+    /**
+     * Interrupt handler for the console's read interrupt.
+     */
+    private class ReadHandler extends InterruptHandler {
+	/**
+	 * When a character has been typed, pass it through the line
+	 * discipline into the input buffer.
+	 */
+	public void serviceDevice() {
+	    cook(console.getChar());
+	}
+    }
+
+    /**
+     * Interrupt handler for the console's write-complete interrupt.
+     */
+    private class WriteHandler extends InterruptHandler {
+	/**
+	 * When a character has been printed, print the next one, if
+	 * any, and wake up a writer waiting for room in the buffer.
+	 */
+	public void serviceDevice() {
+	    outputBusy = false;
+	    startOutput();
+	    if(outputWaiting) {
+		outputWaiting = false;
+		outputRoom.V();
+	    }
+	}
+    }
 }
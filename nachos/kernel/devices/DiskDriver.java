@@ -19,6 +19,8 @@
 package nachos.kernel.devices;
 
 import nachos.machine.Disk;
+import nachos.kernel.HostProfiler;
+import nachos.kernel.KernelEvents;
 import nachos.kernel.threads.Semaphore;
 import nachos.kernel.threads.Lock;
 import nachos.kernel.devices.InterruptHandler;
@@ -67,10 +69,14 @@ public class DiskDriver {
    * @param index Offset in the buffer at which to place the data.
    */
   public void readSector(int sectorNumber, byte[] data, int index) {
+    long hostTime = HostProfiler.start();
     lock.acquire();			// only one disk I/O at a time
+    Object event = KernelEvents.beginDiskIO(sectorNumber, false);
     disk.readRequest(sectorNumber, data, index);
     semaphore.P();			// wait for interrupt
+    KernelEvents.endDiskIO(event);
     lock.release();
+    HostProfiler.stop(HostProfiler.DISK, hostTime);
   }
 
   /**
@@ -82,10 +88,14 @@ public class DiskDriver {
    * @param index Offset in the buffer from which to get the data.
    */
   public void writeSector(int sectorNumber, byte[] data, int index) {
+    long hostTime = HostProfiler.start();
     lock.acquire();			// only one disk I/O at a time
+    Object event = KernelEvents.beginDiskIO(sectorNumber, true);
     disk.writeRequest(sectorNumber, data, index);
     semaphore.P();			// wait for interrupt
+    KernelEvents.endDiskIO(event);
     lock.release();
+    HostProfiler.stop(HostProfiler.DISK, hostTime);
   }
 
   /**
@@ -22,8 +22,9 @@ public class ConsoleTest {
   private static ConsoleDriver console;
 
   /**
-   * Test the console by echoing characters typed at the input onto
-   * the output.  Stop when the user types a 'q'.
+   * Test the console by reading characters typed at the input, which
+   * the driver echoes onto the output a line at a time.  Stop when the
+   * user types a 'q'.
    */
   public static void run() {
     char ch;
@@ -32,8 +33,7 @@ public class ConsoleTest {
 
     console = Nachos.consoleDriver;
     while (true) {
-      ch = console.getChar();
-      console.putChar(ch);	// echo it!
+      ch = console.getChar();	// the driver has echoed it
 
       if (ch == 'q') {
 	  Debug.println('c', "ConsoleTest: quitting");
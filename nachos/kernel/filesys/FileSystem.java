@@ -53,6 +53,19 @@ public abstract class FileSystem {
    */
   public abstract boolean remove(String name);
 
+  /**
+   * Get a stamp that changes whenever a file is modified, so that
+   * anything derived from the file's contents can be checked for
+   * staleness.
+   *
+   * @param name The name of the file.
+   * @return The stamp, or -1 if the file does not exist or the file
+   * system does not keep track of modifications (the default).
+   */
+  public long getModificationStamp(String name) {
+    return -1;
+  }
+
   /**
    * Protected constructor to force creation of a filesystem using
    * the init() factory method.
@@ -12,6 +12,7 @@ package nachos.kernel.filesys;
 
 import nachos.Debug;
 import nachos.machine.Disk;
+import nachos.kernel.HostProfiler;
 
 /**
  * This class manages the overall operation of the file system.
@@ -214,6 +215,7 @@ class FileSystemReal extends FileSystem {
     int sector;
     boolean success;
 
+    long hostTime = HostProfiler.start();
     Debug.printf('f', "Creating file %s, size %d\n", name, 
 		 new Long(initialSize));
 
@@ -243,6 +245,7 @@ class FileSystemReal extends FileSystem {
 	}
       }
     }
+    HostProfiler.stop(HostProfiler.FILESYS, hostTime);
     return success;
   }
 
@@ -259,11 +262,13 @@ class FileSystemReal extends FileSystem {
     OpenFile openFile = null;
     int sector;
 
+    long hostTime = HostProfiler.start();
     Debug.printf('f', "Opening file %s\n", name);
     directory.fetchFrom(directoryFile);
     sector = directory.find(name); 
     if (sector >= 0) 		
       openFile = new OpenFileReal(sector);// name was found in directory 
+    HostProfiler.stop(HostProfiler.FILESYS, hostTime);
     return openFile;			// return null if not found
   }
 
@@ -285,10 +290,12 @@ class FileSystemReal extends FileSystem {
     FileHeader fileHdr;
     int sector;
     
+    long hostTime = HostProfiler.start();
     directory = new Directory(NumDirEntries);
     directory.fetchFrom(directoryFile);
     sector = directory.find(name);
     if (sector == -1) {
+       HostProfiler.stop(HostProfiler.FILESYS, hostTime);
        return false;			 // file not found 
     }
     fileHdr = new FileHeader();
@@ -303,6 +310,7 @@ class FileSystemReal extends FileSystem {
 
     freeMap.writeBack(freeMapFile);		// flush to disk
     directory.writeBack(directoryFile);        // flush to disk
+    HostProfiler.stop(HostProfiler.FILESYS, hostTime);
     return true;
   } 
 
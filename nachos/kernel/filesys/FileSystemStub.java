@@ -12,6 +12,7 @@ package nachos.kernel.filesys;
 
 import java.io.*;
 
+import nachos.kernel.HostProfiler;
 import nachos.kernel.threads.Scheduler;
 
 /**
@@ -48,17 +49,20 @@ class FileSystemStub extends FileSystem {
    */
   public boolean create(String name, long initialSize) { 
     FileOutputStream fsFile;
+    boolean success = true;
 
+    long hostTime = HostProfiler.start();
     if (BLOCKING_FILESYS)
 	Scheduler.yield();
     try {
       fsFile = new FileOutputStream(name);
       fsFile.close();    
     } catch (IOException e) {
-      return false;
+      success = false;
     }
 
-    return true; 
+    HostProfiler.stop(HostProfiler.FILESYS, hostTime);
+    return success; 
   }
 
   /**
@@ -70,20 +74,20 @@ class FileSystemStub extends FileSystem {
    * if the file was successfully opened, otherwise null.
    */
   public OpenFile open(String name) {
-    RandomAccessFile file;
+    OpenFile openFile = null;
 
+    long hostTime = HostProfiler.start();
     if (BLOCKING_FILESYS)
 	Scheduler.yield();
-    if (!new File(name).exists())
-	return null;
-    try {
-      file = new RandomAccessFile(name, "rw");
-    }
-    catch (IOException e) {
-      return null;
+    if (new File(name).exists()) {
+      try {
+	openFile = new OpenFileStub(new RandomAccessFile(name, "rw"));
+      }
+      catch (IOException e) { }
     }
 
-    return new OpenFileStub(file);
+    HostProfiler.stop(HostProfiler.FILESYS, hostTime);
+    return openFile;
   }
 
   /**
@@ -94,11 +98,27 @@ class FileSystemStub extends FileSystem {
    */
   public boolean remove(String name) { 
     File file;
+    boolean success;
 
+    long hostTime = HostProfiler.start();
     if (BLOCKING_FILESYS)
 	Scheduler.yield();
     file = new File(name);
-    return file.delete();
+    success = file.delete();
+    HostProfiler.stop(HostProfiler.FILESYS, hostTime);
+    return success;
+  }
+
+  /**
+   * Get a stamp that changes whenever a file is modified: the host
+   * file's modification time.
+   *
+   * @param name The name of the file.
+   * @return The stamp, or -1 if the file does not exist.
+   */
+  public long getModificationStamp(String name) {
+    long stamp = new File(name).lastModified();
+    return stamp == 0 ? -1 : stamp;
   }
   
 }
@@ -12,6 +12,7 @@ package nachos.kernel.filesys;
 
 import nachos.Debug;
 import nachos.machine.Disk;
+import nachos.kernel.HostProfiler;
 import nachos.kernel.Nachos;
 
 /**
@@ -129,6 +130,7 @@ class OpenFileReal implements OpenFile {
       return 0; 				// check request
     if ((position + numBytes) > fileLength)		
       numBytes = fileLength - (int)position;
+    long hostTime = HostProfiler.start();
     Debug.printf('f', "Reading %d bytes at %d, from file of length %d.\n",
 		 new Integer(numBytes), new Long(position), 
 		 new Integer(fileLength));
@@ -146,6 +148,7 @@ class OpenFileReal implements OpenFile {
     // copy the part we want
     System.arraycopy(buf, (int)position - (firstSector * Disk.SectorSize),
 		     into, index, numBytes);
+    HostProfiler.stop(HostProfiler.FILEIO, hostTime);
     return numBytes;
   }
 
@@ -180,6 +183,7 @@ class OpenFileReal implements OpenFile {
       return 0;				// check request
     if ((position + numBytes) > fileLength)
       numBytes = fileLength - (int)position;
+    long hostTime = HostProfiler.start();
     Debug.printf('f', "Writing %d bytes at %d, from file of length %d.\n",
 		 new Integer(numBytes), new Long(position), 
 		 new Integer(fileLength));
@@ -210,6 +214,7 @@ class OpenFileReal implements OpenFile {
       Nachos.diskDriver.writeSector(hdr.byteToSector(i * Disk.SectorSize), 
 				    buf, (i - firstSector) * Disk.SectorSize);
 
+    HostProfiler.stop(HostProfiler.FILEIO, hostTime);
     return numBytes;
   }
 
@@ -11,6 +11,7 @@
 package nachos.kernel.filesys;
 
 import java.io.*;
+import nachos.kernel.HostProfiler;
 import nachos.kernel.threads.Scheduler;
 
 /**
@@ -71,14 +72,16 @@ class OpenFileStub implements OpenFile {
   public int readAt(byte into[], int index, int numBytes, long position) { 
     int len;
 
+    long hostTime = HostProfiler.start();
     if (BLOCKING_FILESYS)
 	Scheduler.yield();
     try {
       file.seek(position);
       len = file.read(into, index, numBytes);
     } catch (IOException e) {
-      return 0;
+      len = 0;
     }
+    HostProfiler.stop(HostProfiler.FILEIO, hostTime);
     return len;
   }
 
@@ -92,15 +95,19 @@ class OpenFileStub implements OpenFile {
    * @return The number of bytes actually written (0 in case of an error).
    */
   public int writeAt(byte from[], int index, int numBytes, long position) { 
+    int len = numBytes;
+
+    long hostTime = HostProfiler.start();
     if (BLOCKING_FILESYS)
 	Scheduler.yield();
     try {
       file.seek(position);
       file.write(from, index, numBytes);
     } catch (IOException e) {
-      return 0;
+      len = 0;
     }
-    return numBytes;
+    HostProfiler.stop(HostProfiler.FILEIO, hostTime);
+    return len;
   }	
 
   /**
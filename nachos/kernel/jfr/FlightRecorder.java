@@ -0,0 +1,193 @@
+// FlightRecorder.java
+//	Java Flight Recorder events describing kernel activity.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import nachos.kernel.KernelEvents;
+import nachos.machine.Machine;
+import nachos.machine.NachosThread;
+
+/**
+ * The KernelEvents.Recorder that turns kernel events into custom Java
+ * Flight Recorder events, so that they appear on the same timeline as
+ * the host samples in JDK Mission Control.  Each event also carries the
+ * simulated time (Machine.stats.totalTicks), so that recordings can be
+ * lined up with Nachos debugging output.
+ *
+ * This is the only class in Nachos that uses the jdk.jfr API, which
+ * needs a JDK 11 or later host.  KernelEvents loads it by name, and
+ * only if that API is present; on older hosts this package can be left
+ * out of the build.  When no recording is in progress the events are
+ * not enabled, and the cost is that of allocating a small object,
+ * which the JIT usually eliminates.
+ */
+public class FlightRecorder implements KernelEvents.Recorder {
+
+  /** Current simulated time. */
+  private static int now() {
+    return Machine.stats.totalTicks;
+  }
+
+  /** Name of a thread, or null if there isn't one. */
+  private static String nameOf(NachosThread thread) {
+    return thread == null ? null : thread.getName();
+  }
+
+  public void contextSwitch(NachosThread from, NachosThread to) {
+    ContextSwitch event = new ContextSwitch();
+    if (event.isEnabled()) {
+      event.fromThread = nameOf(from);
+      event.toThread = nameOf(to);
+      event.tick = now();
+      event.commit();
+    }
+  }
+
+  public Object beginSyscall(NachosThread thread, int type, String name) {
+    SyscallEvent event = new SyscallEvent();
+    if (!event.isEnabled())
+      return null;
+    event.thread = nameOf(thread);
+    event.code = type;
+    event.name = name;
+    event.startTick = now();
+    event.begin();
+    return event;
+  }
+
+  public void endSyscall(Object span) {
+    SyscallEvent event = (SyscallEvent)span;
+    event.end();
+    event.endTick = now();
+    event.commit();
+  }
+
+  public Object beginDiskIO(int sector, boolean write) {
+    DiskIO event = new DiskIO();
+    if (!event.isEnabled())
+      return null;
+    event.sector = sector;
+    event.write = write;
+    event.startTick = now();
+    event.begin();
+    return event;
+  }
+
+  public void endDiskIO(Object span) {
+    DiskIO event = (DiskIO)span;
+    event.end();
+    event.endTick = now();
+    event.commit();
+  }
+
+  public Object beginLockWait(String lock, NachosThread waiter,
+			      NachosThread owner) {
+    LockContention event = new LockContention();
+    if (!event.isEnabled())
+      return null;
+    event.lock = lock;
+    event.thread = nameOf(waiter);
+    event.owner = nameOf(owner);
+    event.startTick = now();
+    event.begin();
+    return event;
+  }
+
+  public void endLockWait(Object span) {
+    LockContention event = (LockContention)span;
+    event.end();
+    event.endTick = now();
+    event.commit();
+  }
+
+  public Object beginPageFault(NachosThread thread, int vaddr) {
+    PageFault event = new PageFault();
+    if (!event.isEnabled())
+      return null;
+    event.thread = nameOf(thread);
+    event.virtualAddress = vaddr;
+    event.virtualPage = vaddr / Machine.PageSize;
+    event.startTick = now();
+    event.begin();
+    return event;
+  }
+
+  public void endPageFault(Object span) {
+    PageFault event = (PageFault)span;
+    event.end();
+    event.endTick = now();
+    event.commit();
+  }
+
+  /** The CPU was handed from one Nachos thread to another. */
+  @Name("nachos.ContextSwitch")
+  @Label("Context Switch")
+  @Category({"Nachos", "Scheduler"})
+  @Description("The CPU was handed from one Nachos thread to another")
+  public static class ContextSwitch extends Event {
+    @Label("From Thread") String fromThread;
+    @Label("To Thread") String toThread;
+    @Label("Tick") int tick;
+  }
+
+  /** A system call made by a user program. */
+  @Name("nachos.Syscall")
+  @Label("System Call")
+  @Category({"Nachos", "User Programs"})
+  @Description("A system call made by a user program")
+  public static class SyscallEvent extends Event {
+    @Label("Thread") String thread;
+    @Label("Code") int code;
+    @Label("Name") String name;
+    @Label("Start Tick") int startTick;
+    @Label("End Tick") int endTick;
+  }
+
+  /** A disk sector transfer, from request to completion interrupt. */
+  @Name("nachos.DiskIO")
+  @Label("Disk I/O")
+  @Category({"Nachos", "Devices"})
+  @Description("A disk sector read or write, from request to completion")
+  public static class DiskIO extends Event {
+    @Label("Sector") int sector;
+    @Label("Write") boolean write;
+    @Label("Start Tick") int startTick;
+    @Label("End Tick") int endTick;
+  }
+
+  /** A thread had to wait for a lock held by another thread. */
+  @Name("nachos.LockContention")
+  @Label("Lock Contention")
+  @Category({"Nachos", "Synchronization"})
+  @Description("A thread waited for a lock held by another thread")
+  public static class LockContention extends Event {
+    @Label("Lock") String lock;
+    @Label("Thread") String thread;
+    @Label("Owner") String owner;
+    @Label("Start Tick") int startTick;
+    @Label("End Tick") int endTick;
+  }
+
+  /** A page fault taken by a user program. */
+  @Name("nachos.PageFault")
+  @Label("Page Fault")
+  @Category({"Nachos", "Virtual Memory"})
+  @Description("A page fault taken by a user program")
+  public static class PageFault extends Event {
+    @Label("Thread") String thread;
+    @Label("Virtual Address") int virtualAddress;
+    @Label("Virtual Page") int virtualPage;
+    @Label("Start Tick") int startTick;
+    @Label("End Tick") int endTick;
+  }
+}
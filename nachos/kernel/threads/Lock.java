@@ -10,6 +10,7 @@ package nachos.kernel.threads;
 
 import nachos.machine.NachosThread;
 import nachos.Debug;
+import nachos.kernel.KernelEvents;
 
 /**
  * This class defines a "lock".  A lock can be BUSY or FREE.
@@ -54,7 +55,16 @@ public class Lock {
     Debug.printf('s', "Acquiring lock %s for thread %s\n",
 		 name, Scheduler.currentThread().getName());
 
-    sem.P();
+    NachosThread holder = owner;
+    if (holder == null) {
+      sem.P();
+    } else {
+      // Contended: record how long we wait, for flight recordings.
+      Object event =
+	KernelEvents.beginLockWait(name, Scheduler.currentThread(), holder);
+      sem.P();
+      KernelEvents.endLockWait(event);
+    }
     owner = Scheduler.currentThread();
 
     Debug.printf('s', "Acquired lock %s for thread %s\n",
@@ -18,6 +18,8 @@ import nachos.Debug;
 import nachos.machine.NachosThread;
 import nachos.machine.Interrupt;
 import nachos.machine.Timer;
+import nachos.kernel.HostProfiler;
+import nachos.kernel.KernelEvents;
 import nachos.kernel.devices.InterruptHandler;
 
 /**
@@ -133,6 +135,7 @@ public class Scheduler {
    * @param nextThread The thread to be given the CPU.
    */
   private static void run(NachosThread nextThread) {
+    long hostTime = HostProfiler.start();
     Debug.ASSERT(currentThread != null
 		 && currentThread.getStatus() != NachosThread.RUNNING);
 
@@ -144,12 +147,16 @@ public class Scheduler {
 
     NachosThread oldThread = currentThread;
     currentThread = nextThread;
+    KernelEvents.contextSwitch(oldThread, nextThread);
+    HostProfiler.suspend();
     oldThread.switchTo(nextThread);
+    HostProfiler.resume();
 
     Debug.println('t', "Now in thread: " + currentThread.getName());
 
     currentThread.restoreState();   // restore user's CPU registers and
     				    // address space, if any.
+    HostProfiler.stop(HostProfiler.SWITCH, hostTime);
   }
 
   /**
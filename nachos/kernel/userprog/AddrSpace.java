@@ -19,8 +19,11 @@
 
 package nachos.kernel.userprog;
 
+import java.util.ArrayList;
+
 import nachos.Debug;
 import nachos.machine.TranslationEntry;
+import nachos.machine.Interrupt;
 import nachos.machine.Machine;
 import nachos.kernel.filesys.OpenFile;
 
@@ -33,18 +36,147 @@ import nachos.kernel.filesys.OpenFile;
  * other fields to this class to keep track of things like open files,
  * network connections, etc., in use by a user program.
  *
- * NOTE: Most of what is in currently this class assumes that just one user
- * program at a time will be executing.  You will have to rewrite this
- * code so that it is suitable for multiprogramming.
+ * Each address space occupies its own set of physical page frames,
+ * obtained from the PhysicalMemoryManager, so several user programs
+ * can be resident and executing at the same time.  Frames are only
+ * obtained when pages are first touched (demand paging).
+ *
+ * An address space can be forked (see fork()) to make a copy of it for
+ * a child process.  Rather than copying memory, the child shares the
+ * parent's resident frames, with both page tables marking them
+ * read-only; the first write by either side to such a page raises a
+ * ReadOnlyException, and only then is the page copied (copy-on-write).
+ *
+ * Pages lying wholly within the code segment are mapped read-only, and
+ * are shared, through the TextCache, by all the address spaces running
+ * the same executable.
+ *
+ * A program can map an open file into its address space (see mmap()),
+ * and then use the file's contents as memory.  The pages of a mapping
+ * are read from the file when first touched, and written straight back
+ * to it, rather than to the swap area, when they are evicted dirty or
+ * the file is unmapped.
  */
 public class AddrSpace {
 
   /** Page table that describes a virtual-to-physical address mapping. */
   private TranslationEntry pageTable[];
 
+  /** Resources consumed by the threads running in this address space. */
+  public final ResourceUsage usage = new ResourceUsage();
+
+  /** Tracer for the system calls made in this address space. */
+  public final SyscallTracer tracer = new SyscallTracer();
+
+  /** The files opened by the program. */
+  public final FileTable files = new FileTable();
+
+  /** The SpaceId of the process, or -1 if it has none. */
+  private int spaceId = -1;
+
+  /** A file mapped into the address space. */
+  private static class Mapping {
+
+    /** The file, held open as long as it is mapped. */
+    final FileTable.Entry file;
+
+    /** The number of bytes of the file mapped. */
+    final int length;
+
+    /** The first virtual page of the mapping. */
+    int firstPage;
+
+    Mapping(FileTable.Entry file, int length) {
+      this.file = file;
+      this.length = length;
+    }
+
+    /** @return The number of pages the mapping occupies. */
+    int numPages() {
+      return pagesBelow(length);
+    }
+  }
+
+  /** The files mapped into the address space. */
+  private final ArrayList<Mapping> mappings = new ArrayList<Mapping>();
+
+  /** The mapping each page belongs to, or null for ordinary memory. */
+  private Mapping mapping[];
+
+  /** Is each page part of a mapping since unmapped, and so unused? */
+  private boolean vacant[];
+
+  /** Is each page a guard page below the stack of a thread? */
+  private boolean guard[];
+
+  /** Number of threads running in this address space. */
+  private int numThreads = 1;
+
+  /** Tops of the stacks of exited threads, free for new ones. */
+  private final ArrayList<Integer> freeStacks = new ArrayList<Integer>();
+
+  /** The page table the machine is using. */
+  private static TranslationEntry loadedTable[] = null;
+
+  /** The executable image, from which pages are filled on demand. */
+  private ExecImageCache.Image image;
+
+  /** The header of the executable, describing its segments. */
+  private NoffHeader noffH;
+
+  /** Key identifying the executable in the TextCache, or null. */
+  private String textKey;
+
+  /**
+   * The swap slot holding an up-to-date copy of each page, or -1 if
+   * none does; null if there is no swap area.
+   */
+  private int swapSlot[];
+
+  /** Number of pages for which swap slots are reserved or allocated. */
+  private int numCommitted = 0;
+
+  /** First page of the heap, just above the data segments. */
+  private int heapStart;
+
+  /** The break: the first address above the heap. */
+  private int brk;
+
+  /** Lowest page of the stack, as far as it has grown. */
+  private int stackBottom;
+
+  /** Page just above the stack; thread stacks are from here up. */
+  private int stackTop;
+
+  /** Is each page shared copy-on-write with a forked address space? */
+  private boolean cow[];
+
+  /** Number of frames shared with forked address spaces, at the forks. */
+  private int numShared = 0;
+
+  /** Number of shared pages since copied on write. */
+  private int numCopied = 0;
+
+  /** Number of dirty neighbouring pages written along with a victim. */
+  private static final int ClusterSize = 4;
+
   /** Default size of the user stack area -- increase this as necessary! */
   private static final int UserStackSize = 1024;
 
+  /**
+   * Number of pages of virtual address space between the data segments
+   * and the top of the stack, into which the heap grows up and the
+   * stack grows down.
+   */
+  private static final int HeapStackPages = 256;
+
+  /** Largest number of pages to which mappings may grow the address space. */
+  private static final int MaxPages = 8192;
+
+  /** Number of pages in the stack of a thread started by Fork. */
+  private static final int StackPages =
+    (UserStackSize + Machine.PageSize - 1) / Machine.PageSize;
+
   /**
    * Create a new address space.
    */
@@ -56,34 +188,66 @@ public class AddrSpace {
    *
    * Assumes that the object code file is in NOFF format.
    *
-   * First, set up the translation from program memory to physical 
-   * memory.  For now, this is really simple (1:1), since we are
-   * only uniprogramming.
+   * The executable is read (or found in the ExecImageCache) and
+   * closed here, but no memory is filled.  The page table starts out
+   * with every entry invalid, and each page is brought in by pageIn()
+   * when it is first touched, either by the program (which causes a
+   * PageFaultException) or by the kernel (through copyIn() and the
+   * like).  Pages
+   * of the code and initialized data segments are copied from the
+   * executable's image; all other pages are simply zero-filled.
+   *
+   * Above the data segments are HeapStackPages pages of address space,
+   * of which only the page at the top, where the stack starts, is in
+   * use at first.  The heap grows up from the bottom by SC_Sbrk (see
+   * sbrk()), and the stack grows down from the top when the program
+   * touches a page just below it (see growStack()), with at least one
+   * unused guard page always left between them.  Touching any other
+   * page of the gap is an error.
+   *
+   * If the Pager has a swap area, a swap slot is reserved for each page
+   * in use, and for each page later added to the heap or stack, so that
+   * the page can be evicted; the slot itself is only allocated when the
+   * page is first written out.
    *
    * @param executable The file containing the object code to 
    * 	load into memory
    * @return -1 if an error occurs while reading the object file,
-   *    otherwise 0.
+   *    or there is no room in the swap area, otherwise 0.
    */
   public int exec(OpenFile executable) {
+    return exec(executable, null);
+  }
+
+  /**
+   * Load a program, as for exec(OpenFile), sharing its code pages with
+   * any other address spaces running the same executable.
+   *
+   * @param executable The file containing the object code to 
+   * 	load into memory
+   * @param name The name of the executable file, which (along with its
+   * length and modification stamp) identifies it in the ExecImageCache
+   * and the TextCache; if null, neither is used.
+   * @return -1 if an error occurs while reading the object file,
+   *    or there is no room in the swap area, otherwise 0.
+   */
+  public int exec(OpenFile executable, String name) {
     NoffHeader noffH;
     long size;
     
-    if((noffH = NoffHeader.readHeader(executable)) == null)
+    ExecImageCache.Image image = ExecImageCache.load(name, executable);
+    if (image == null)
 	return(-1);
+    noffH = image.header;
 
     // how big is address space?
     size = roundToPage(noffH.code.size)
-	     + roundToPage(noffH.initData.size + noffH.uninitData.size)
-	     + UserStackSize;	// we need to increase the size
-    				// to leave room for the stack
-    int numPages = (int)(size / Machine.PageSize);
-
-    Debug.ASSERT((numPages <= Machine.NumPhysPages),// check we're not trying
-		 "AddrSpace constructor: Not enough memory!");
-                                                // to run anything too big --
-						// at least until we have
-						// virtual memory
+	     + roundToPage(noffH.initData.size + noffH.uninitData.size);
+    heapStart = (int)(size / Machine.PageSize);
+    brk = heapStart * Machine.PageSize;
+    stackTop = heapStart + HeapStackPages;
+    stackBottom = stackTop - 1;
+    int numPages = stackTop;
 
     Debug.println('a', "Initializing address space, numPages=" 
 		+ numPages + ", size=" + size);
@@ -92,43 +256,1198 @@ public class AddrSpace {
     pageTable = new TranslationEntry[numPages];
     for (int i = 0; i < numPages; i++) {
       pageTable[i] = new TranslationEntry();
-      pageTable[i].virtualPage = i; // for now, virtual page# = phys page#
-      pageTable[i].physicalPage = i;
-      pageTable[i].valid = true;
+      pageTable[i].virtualPage = i;
+      pageTable[i].physicalPage = -1;
+      pageTable[i].valid = false;	// not in memory until first touched
       pageTable[i].use = false;
       pageTable[i].dirty = false;
-      pageTable[i].readOnly = false;  // if the code segment was entirely on 
-				      // a separate page, we could set its 
-				      // pages to be read-only
+      pageTable[i].readOnly = false;  // set below for pages of pure code
     }
-    
-    // Zero out the entire address space, to zero the unitialized data 
-    // segment and the stack segment.
-    for(int i = 0; i < size; i++)
-	Machine.mainMemory[i] = 0;
 
-    // then, copy in the code and data segments into memory
-    if (noffH.code.size > 0) {
-      Debug.println('a', "Initializing code segment, at " +
-	    noffH.code.virtualAddr + ", size " +
-	    noffH.code.size);
+    Pager.acquire();
+    boolean ok = commit(heapStart + stackTop - stackBottom);
+    Pager.release();
+    if (!ok) {
+      Debug.println('+', "AddrSpace.exec: no swap space for "
+		    + numCommitted + " pages");
+      pageTable = null;
+      return(-1);
+    }
+    if (Pager.getSwap() != null) {
+      swapSlot = new int[numPages];
+      for (int i = 0; i < numPages; i++)
+	swapSlot[i] = -1;
+    }
 
-      executable.seek(noffH.code.inFileAddr);
-      executable.read(Machine.mainMemory, (int)noffH.code.virtualAddr, 
-		      (int)noffH.code.size);
+    cow = new boolean[numPages];
+    mapping = new Mapping[numPages];
+    vacant = new boolean[numPages];
+    guard = new boolean[numPages];
+    this.image = image;
+    this.noffH = noffH;
+    for (int i = 0; i < numPages; i++)
+      pageTable[i].readOnly = isText(i);
+    textKey = image.key;
+    PageTraceRecorder.start(this);
+    PageMerger.start(this);
+    return(0);
+  }
+
+  /**
+   * Handle a page fault taken by a thread running in this address space.
+   *
+   * @param vaddr The virtual address that caused the fault.
+   * @return true if the page is now in memory and the faulting
+   * instruction can be restarted, false if the address is not part of
+   * the address space or the page could not be brought in.
+   */
+  public boolean handlePageFault(int vaddr) {
+    if (vaddr < 0 || pageTable == null)
+      return false;
+    int vpn = vaddr / Machine.PageSize;
+    if (vpn >= pageTable.length)
+      return false;
+    if (!isMapped(vpn) && !growStack(vaddr))
+      return false;
+    return pageTable[vpn].valid || pageIn(vpn);
+  }
+
+  /**
+   * Is a virtual page in use: part of the code or data, the heap,
+   * the stack, or a thread stack?
+   *
+   * @param vpn The virtual page number.
+   * @return false if the page is in the gap between heap and stack.
+   */
+  private boolean isMapped(int vpn) {
+    if (vacant[vpn] || guard[vpn])
+      return false;
+    return vpn < heapStart || vpn < pagesBelow(brk) || vpn >= stackBottom;
+  }
+
+  /**
+   * @return The number of pages needed to hold addresses up to (not
+   * including) an address.
+   */
+  private static int pagesBelow(long addr) {
+    return (int)((addr + Machine.PageSize - 1) / Machine.PageSize);
+  }
+
+  /**
+   * Extend the stack down to take in a page that the program has
+   * touched below it.  This is allowed only if the address touched is
+   * no more than a page below the stack pointer (anything further is
+   * taken to be a stray reference, not a stack access), and the page
+   * below the new bottom of the stack, the guard page, is not part of
+   * the heap.
+   *
+   * @param vaddr The virtual address touched.
+   * @return true if the stack now includes the page.
+   */
+  private boolean growStack(int vaddr) {
+    int vpn = vaddr / Machine.PageSize;
+    int sp = Machine.readRegister(Machine.StackReg);
+    if (vpn > stackBottom || vaddr < sp - Machine.PageSize)
+      return false;
+    Pager.acquire();
+    boolean ok = vpn >= stackBottom	// another thread got here first
+      || (vpn - 1 >= pagesBelow(brk) && commit(stackBottom - vpn));
+    if (ok && vpn < stackBottom) {
+      Debug.println('a', "AddrSpace: stack grown from page "
+		    + stackBottom + " down to page " + vpn);
+      stackBottom = vpn;
     }
+    Pager.release();
+    return ok;
+  }
 
-    if (noffH.initData.size > 0) {
-      Debug.println('a', "Initializing data segment, at " +
-	    noffH.initData.virtualAddr + ", size " +
-	    noffH.initData.size);
+  /**
+   * Move the break, to grow or shrink the heap.  Pages added to the
+   * heap are not touched here: each is zero-filled when it is first
+   * used.  Pages taken out of the heap are released at once, along with
+   * any frames and swap slots holding them.
+   *
+   * @param increment The number of bytes by which to move the break.
+   * @return The old break, or -1 if the heap would run into the guard
+   * page below the stack, or below its start, or there is no room in
+   * the swap area.
+   */
+  public int sbrk(int increment) {
+    Pager.acquire();
+    int oldBrk = brk;
+    long newBrk = (long)brk + increment;
+    int oldPages = pagesBelow(brk), newPages = pagesBelow(newBrk);
+    boolean ok = newBrk >= heapStart * Machine.PageSize
+      && newPages < stackBottom;
+    if (ok && newPages > oldPages)
+      ok = commit(newPages - oldPages);
+    if (ok) {
+      for (int vpn = newPages; vpn < oldPages; vpn++)
+	release(vpn);
+      brk = (int)newBrk;
+    }
+    Pager.release();
+    return ok ? oldBrk : -1;
+  }
+
+  /**
+   * Reserve swap slots for pages being added to the address space, if
+   * there is a swap area.  Called with the pager lock held.
+   *
+   * @param numPages The number of pages.
+   * @return false if there is not enough room in the swap area.
+   */
+  private boolean commit(int numPages) {
+    SwapSpace swap = Pager.getSwap();
+    if (swap != null && !swap.reserve(numPages))
+      return false;
+    numCommitted += numPages;
+    return true;
+  }
 
-      executable.seek(noffH.initData.inFileAddr);
-      executable.read(Machine.mainMemory, (int)noffH.initData.virtualAddr, 
-		      (int)noffH.initData.size);
+  /**
+   * Take a page out of use: free its frame, if it has one, and its
+   * swap slot or the reservation for one.  Called with the pager lock
+   * held.
+   *
+   * @param vpn The virtual page number.
+   */
+  private void release(int vpn) {
+    TranslationEntry entry = pageTable[vpn];
+    SwapSpace swap = Pager.getSwap();
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    if (entry.valid) {
+      TLBManager.invalidate(this, vpn);
+      Pager.releaseFrame(entry.physicalPage, this);
     }
+    entry.valid = false;
+    entry.physicalPage = -1;
+    entry.dirty = false;
+    entry.readOnly = false;
+    cow[vpn] = false;
+    Interrupt.setLevel(oldLevel);
+    if (swap != null) {
+      if (swapSlot[vpn] != -1)
+	swap.freePage(swapSlot[vpn]);
+      else
+	swap.unreserve(1);
+      swapSlot[vpn] = -1;
+    }
+    numCommitted--;
+  }
 
-    return(0);
+  /**
+   * Get the swap slot of a page that is to be written out, allocating
+   * one if it has none.  Called with the pager lock held.
+   *
+   * @param vpn The virtual page number.
+   * @return The slot.
+   */
+  private int slotFor(int vpn) {
+    if (swapSlot[vpn] == -1)
+      swapSlot[vpn] = Pager.getSwap().allocatePage();
+    return swapSlot[vpn];
+  }
+
+  /**
+   * Map a page of code that another address space running the same
+   * executable already has in memory.  Called with the pager lock held.
+   *
+   * @param vpn The virtual page number.
+   * @return true if the page was found in the TextCache and mapped,
+   * false if it must be read in.
+   */
+  private boolean shareText(int vpn) {
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    int frame = TextCache.lookup(textKey, vpn);
+    if (frame != -1) {
+      PhysicalMemoryManager.getPhysicalMemoryManager().shareFrame(frame,
+								  this);
+      pageTable[vpn].physicalPage = frame;
+      pageTable[vpn].use = false;
+      pageTable[vpn].dirty = false;
+      pageTable[vpn].readOnly = true;
+      cow[vpn] = false;
+      pageTable[vpn].valid = true;
+      Machine.stats.numSharedText++;
+      Debug.println('a', "Sharing text page " + vpn + " in frame " + frame);
+    }
+    Interrupt.setLevel(oldLevel);
+    if (frame != -1)
+      PageTraceRecorder.reference(this, vpn, false);
+    return frame != -1;
+  }
+
+  /**
+   * Does a virtual page lie wholly within the code segment, so that
+   * it can be read-only, and shared?
+   *
+   * @param vpn The virtual page number.
+   * @return true if the page holds nothing but code.
+   */
+  private boolean isText(int vpn) {
+    int start = vpn * Machine.PageSize, end = start + Machine.PageSize;
+    return start >= noffH.code.virtualAddr
+      && end <= noffH.code.virtualAddr + noffH.code.size
+      && !overlaps(noffH.initData, start, end)
+      && !overlaps(noffH.uninitData, start, end);
+  }
+
+  /**
+   * Does a segment overlap a range of virtual addresses?
+   */
+  private static boolean overlaps(NoffHeader.NoffSegment segment,
+				  int start, int end) {
+    return segment.size > 0 && segment.virtualAddr < end
+      && segment.virtualAddr + segment.size > start;
+  }
+
+  /**
+   * @return The key identifying the executable of this address space
+   * in the TextCache, or null if its code is not shared.
+   */
+  String getTextKey() {
+    return textKey;
+  }
+
+  /**
+   * Handle a ReadOnlyException taken by a thread running in this
+   * address space, or a store by the kernel into one of its pages.
+   * If the page is shared copy-on-write, this address space is given
+   * its own copy of it (or, if no other address space shares the frame
+   * any more, simply takes it over) and the page is made writable.
+   *
+   * @param vaddr The virtual address that was written.
+   * @return true if the page is now in memory and writable, so that
+   * the faulting instruction can be restarted, false if the address is
+   * not part of the address space, the page is genuinely read-only, or
+   * no frame could be found for the copy.
+   */
+  public boolean handleWriteFault(int vaddr) {
+    int vpn = vaddr / Machine.PageSize;
+    do {
+      if (!handlePageFault(vaddr))
+	return false;
+      Pager.acquire();
+      if (pageTable[vpn].valid)
+	break;
+      Pager.release();		// evicted again while we waited
+    } while (true);
+
+    TranslationEntry entry = pageTable[vpn];
+    boolean ok = true;
+    if (cow[vpn]) {
+      ok = copyOnWrite(vpn);
+    } else if (entry.readOnly) {
+      ok = false;
+    }
+    Pager.release();
+    return ok;
+  }
+
+  /**
+   * Give this address space a private, writable copy of a page that it
+   * shares copy-on-write.  Called with the pager lock held and the page
+   * resident.
+   *
+   * @param vpn The virtual page number.
+   * @return true if the page is now private (or has been evicted, in
+   * which case it will be private when brought back), false if no
+   * frame could be found for the copy.
+   */
+  private boolean copyOnWrite(int vpn) {
+    PhysicalMemoryManager memory =
+      PhysicalMemoryManager.getPhysicalMemoryManager();
+    TranslationEntry entry = pageTable[vpn];
+    int oldFrame = entry.physicalPage;
+
+    if (memory.numHolders(oldFrame) > 1) {
+      int frame = Pager.getFrame(this, vpn);
+      if (frame == -1) {
+	Debug.println('a', "AddrSpace.copyOnWrite: no frame for page " + vpn);
+	return false;
+      }
+      if (!entry.valid) {
+	// The shared frame was itself evicted to make room; the page
+	// will come back private when it is next touched.
+	int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+	memory.freeFrame(frame);
+	Interrupt.setLevel(oldLevel);
+	return true;
+      }
+      System.arraycopy(Machine.mainMemory, oldFrame * Machine.PageSize,
+		       Machine.mainMemory, frame * Machine.PageSize,
+		       Machine.PageSize);
+      int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+      TLBManager.invalidate(this, vpn);
+      memory.releaseFrame(oldFrame, this);
+      entry.physicalPage = frame;
+      entry.dirty = true;	// differs from anything in swap
+      entry.readOnly = false;
+      cow[vpn] = false;
+      Interrupt.setLevel(oldLevel);
+      Pager.loaded(frame);
+      numCopied++;
+      Debug.println('a', "Copy-on-write: page " + vpn + " copied from frame "
+		    + oldFrame + " to frame " + frame);
+    } else {
+      // Everyone else has let go of the frame: take it over.
+      int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+      TLBManager.invalidate(this, vpn);
+      if (memory.getOwner(oldFrame) != this)
+	memory.reassignFrame(oldFrame, this, vpn);
+      entry.readOnly = false;
+      cow[vpn] = false;
+      Interrupt.setLevel(oldLevel);
+      Debug.println('a', "Copy-on-write: page " + vpn
+		    + " no longer shared, frame " + oldFrame);
+    }
+    return true;
+  }
+
+  /**
+   * Make a copy of this address space, for a child process created by
+   * SC_ForkProcess.  Resident pages are not copied: the child shares their
+   * frames, and they are made read-only in both page tables so that
+   * the first write to one, by either side, makes a private copy (see
+   * handleWriteFault()).  Pages that are in the swap area but not in
+   * memory are copied to the child's own swap slots, and pages never
+   * touched are left to be read from the executable, as for the parent.
+   * The child inherits the parent's mapped files, and writes its own
+   * changes to them back, as the parent does.
+   *
+   * The child's entries for shared pages are marked dirty, since it
+   * has no swap slots holding their contents.
+   *
+   * @return The new address space, or null if there is no room for it
+   * in the swap area.
+   */
+  public AddrSpace fork() {
+    int numPages = pageTable.length;
+    AddrSpace child = new AddrSpace();
+    SwapSpace swap = Pager.getSwap();
+    PhysicalMemoryManager memory =
+      PhysicalMemoryManager.getPhysicalMemoryManager();
+
+    Pager.acquire();
+    if (!child.commit(numCommitted)) {
+      Pager.release();
+      Debug.println('+', "AddrSpace.fork: no swap space for "
+		    + numCommitted + " pages");
+      return null;
+    }
+    if (swap != null) {
+      child.swapSlot = new int[numPages];
+      for (int i = 0; i < numPages; i++)
+	child.swapSlot[i] = -1;
+    }
+    child.heapStart = heapStart;
+    child.brk = brk;
+    child.stackBottom = stackBottom;
+    child.stackTop = stackTop;
+    child.pageTable = new TranslationEntry[numPages];
+    child.cow = new boolean[numPages];
+    child.mapping = new Mapping[numPages];
+    child.vacant = vacant.clone();
+    child.guard = guard.clone();
+    for (int i = 0; i < mappings.size(); i++) {
+      Mapping m = mappings.get(i);
+      Mapping copy = new Mapping(FileTable.hold(m.file), m.length);
+      copy.firstPage = m.firstPage;
+      child.mappings.add(copy);
+      for (int vpn = m.firstPage; vpn < m.firstPage + m.numPages(); vpn++)
+	child.mapping[vpn] = copy;
+    }
+    child.image = image;
+    child.noffH = noffH;
+    child.textKey = textKey;
+    child.files.inherit(files);
+
+    int numShared = 0, numSwapped = 0;
+    byte buffer[] = new byte[Machine.PageSize];
+    for (int vpn = 0; vpn < numPages; vpn++) {
+      TranslationEntry entry = pageTable[vpn];
+      TranslationEntry copy = new TranslationEntry();
+      copy.virtualPage = vpn;
+      copy.physicalPage = -1;
+      copy.valid = false;
+      copy.use = false;
+      copy.dirty = false;
+      copy.readOnly = entry.readOnly;
+      child.pageTable[vpn] = copy;
+
+      int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+      if (entry.valid) {
+	TLBManager.invalidate(this, vpn);
+	memory.shareFrame(entry.physicalPage, child);
+	cow[vpn] = child.cow[vpn] = !entry.readOnly || cow[vpn];
+	entry.readOnly = copy.readOnly = true;
+	copy.physicalPage = entry.physicalPage;
+	copy.dirty = true;
+	copy.valid = true;
+	numShared++;
+      }
+      Interrupt.setLevel(oldLevel);
+
+      if (!entry.valid && swapSlot != null && swapSlot[vpn] != -1) {
+	swap.readPage(swapSlot[vpn], buffer, 0);
+	swap.writePage(child.slotFor(vpn), buffer, 0);
+	numSwapped++;
+      }
+    }
+    this.numShared += numShared;
+    child.numShared = numShared;
+    Pager.release();
+
+    Debug.println('+', "Fork: " + numShared + " frames shared, "
+		  + numSwapped + " swapped pages copied, " + numPages
+		  + " pages in all");
+    PageTraceRecorder.start(child);
+    PageMerger.start(child);
+    return child;
+  }
+
+  /**
+   * Bring a virtual page into memory: get a frame for it from the
+   * Pager, then fill the frame, from the file if the page is part of a
+   * mapping, from the swap area if the page has been evicted since it
+   * was last written, or else from whichever parts of the code and
+   * initialized data segments overlap the page, zeroing the rest.
+   * Finally, validate the page table entry.
+   *
+   * @param vpn The virtual page number.
+   * @return true if the page was brought in, false if there is no
+   * frame to be had or the executable could not be read.
+   */
+  private boolean pageIn(int vpn) {
+    Pager.acquire();
+    if (pageTable[vpn].valid) {	// brought in while we waited
+      Pager.release();
+      return true;
+    }
+    if (!isMapped(vpn)) {		// unmapped while we waited
+      Pager.release();
+      return false;
+    }
+    if (textKey != null && isText(vpn) && shareText(vpn)) {
+      Pager.release();
+      return true;
+    }
+    int frame = Pager.getFrame(this, vpn);
+    if (frame == -1) {
+      Debug.println('a', "AddrSpace.pageIn: no frame for page " + vpn);
+      Pager.release();
+      return false;
+    }
+
+    Machine.stats.numPageFaults++;
+    Debug.println('a', "Paging in virtual page " + vpn
+		  + " to frame " + frame);
+
+    int base = frame * Machine.PageSize;
+    if (mapping[vpn] != null) {
+      readMapped(vpn, base);
+    } else if (swapSlot != null && swapSlot[vpn] != -1) {
+      Pager.getSwap().readPage(swapSlot[vpn], Machine.mainMemory, base);
+      Machine.stats.numSwapIns++;
+    } else {
+      for (int j = 0; j < Machine.PageSize; j++)
+	Machine.mainMemory[base + j] = 0;
+      if (!fillFromSegment(noffH.code, vpn, base)
+	  || !fillFromSegment(noffH.initData, vpn, base)) {
+	int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+	PhysicalMemoryManager.getPhysicalMemoryManager().freeFrame(frame);
+	Interrupt.setLevel(oldLevel);
+	Pager.release();
+	return false;
+      }
+    }
+
+    pageTable[vpn].physicalPage = frame;
+    pageTable[vpn].use = false;
+    pageTable[vpn].dirty = false;
+    pageTable[vpn].readOnly = isText(vpn);	// not shared copy-on-write
+    cow[vpn] = false;
+    pageTable[vpn].valid = true;
+    if (textKey != null && isText(vpn)) {
+      int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+      TextCache.insert(textKey, vpn, frame);
+      Interrupt.setLevel(oldLevel);
+    }
+    Pager.loaded(frame);
+    PageTraceRecorder.reference(this, vpn, false);
+    Pager.release();
+    return true;
+  }
+
+  /**
+   * Evict a page from memory, to free its frame for another use.
+   * Called by the Pager, with the pager lock held.
+   *
+   * The page is invalidated first, so that our threads fault on it
+   * rather than change it while it is being written out.  If it is
+   * clean, nothing more need be done, since an identical copy is in
+   * the swap area, the executable or a mapped file (or it is all
+   * zeroes).  A dirty page of a mapped file is written back to the
+   * file.  Any other dirty page is written to its swap slot, along
+   * with any dirty pages that immediately follow it in the address
+   * space, other than those of mapped files (whose slots, if
+   * allocated now, are likely to follow its slot in the swap area),
+   * which stay resident but become clean, and therefore cheap to evict
+   * later.
+   *
+   * @param vpn The virtual page to evict.
+   */
+  void pageOut(int vpn) {
+    TranslationEntry entry = pageTable[vpn];
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    TLBManager.sync();
+    TLBManager.invalidate(this, vpn);
+    int frame = entry.physicalPage;
+    boolean dirty = entry.dirty;
+    entry.valid = false;
+    entry.physicalPage = -1;
+    Interrupt.setLevel(oldLevel);
+    if (!dirty)
+      return;
+    if (mapping[vpn] != null) {
+      writeMapped(vpn, frame * Machine.PageSize);
+      return;
+    }
+
+    SwapSpace swap = Pager.getSwap();
+    swap.writePage(slotFor(vpn), Machine.mainMemory,
+		   frame * Machine.PageSize);
+    Machine.stats.numSwapOuts++;
+
+    for (int v = vpn + 1; v < vpn + ClusterSize && v < pageTable.length;
+	 v++) {
+      TranslationEntry next = pageTable[v];
+      oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+      boolean clusterable = next.valid && next.dirty && mapping[v] == null;
+      if (clusterable)
+	next.dirty = false;	// changes after this point set it again
+      Interrupt.setLevel(oldLevel);
+      if (!clusterable)
+	break;
+      swap.writePage(slotFor(v), Machine.mainMemory,
+		     next.physicalPage * Machine.PageSize);
+      Machine.stats.numSwapOuts++;
+    }
+  }
+
+  /**
+   * Could a resident page share its frame with an identical page of
+   * another address space?  Pages that are genuinely read-only (code)
+   * are shared already, through the TextCache, and pages of mapped
+   * files are backed by the file, so neither is merged.  Must be called
+   * with interrupts disabled.
+   *
+   * @param vpn The virtual page number.
+   * @return true if the page may be merged (see PageMerger).
+   */
+  boolean isMergeable(int vpn) {
+    return (!pageTable[vpn].readOnly || cow[vpn]) && mapping[vpn] == null;
+  }
+
+  /**
+   * Map a resident page to a frame holding the same contents, shared
+   * copy-on-write with other address spaces, as for a page shared by
+   * fork().  The dirty bit is kept: if the page was clean, its copy in
+   * the swap area or the executable is as good as before.  The caller
+   * updates the PhysicalMemoryManager, and must hold the pager lock and
+   * have interrupts disabled.
+   *
+   * @param vpn The virtual page number.
+   * @param frame The frame, which may be the one the page is in.
+   */
+  void mapShared(int vpn, int frame) {
+    TLBManager.invalidate(this, vpn);
+    pageTable[vpn].physicalPage = frame;
+    pageTable[vpn].readOnly = true;
+    cow[vpn] = true;
+  }
+
+  /**
+   * Get the page table entry for a virtual page.
+   *
+   * @param vpn The virtual page number.
+   * @return The entry, or null if there is no such page.
+   */
+  TranslationEntry getEntry(int vpn) {
+    if (pageTable == null || vpn < 0 || vpn >= pageTable.length)
+      return null;
+    return pageTable[vpn];
+  }
+
+  /**
+   * Copy the part of a segment of the executable that overlaps a
+   * virtual page into the frame that holds the page.
+   *
+   * @param segment The segment.
+   * @param vpn The virtual page number.
+   * @param base The physical address of the frame.
+   * @return true if the overlap (if any) was read successfully.
+   */
+  private boolean fillFromSegment(NoffHeader.NoffSegment segment,
+				  int vpn, int base) {
+    int pageStart = vpn * Machine.PageSize;
+    int start = Math.max(pageStart, segment.virtualAddr);
+    int end = Math.min(pageStart + Machine.PageSize,
+		       segment.virtualAddr + segment.size);
+    if (start >= end)
+      return true;
+    long fileAddr = segment.inFileAddr + (start - segment.virtualAddr);
+    return image.readAt(Machine.mainMemory, base + (start - pageStart),
+			     end - start, fileAddr) == end - start;
+  }
+
+  /**
+   * Copy bytes from user memory into a kernel buffer.
+   *
+   * @param vaddr The user virtual address of the first byte.
+   * @param buffer The kernel buffer.
+   * @param offset Where in the buffer to put the first byte.
+   * @param length The number of bytes to copy.
+   * @return The number of bytes copied, which is less than length if
+   * an address outside the address space is reached.
+   */
+  public int copyIn(int vaddr, byte buffer[], int offset, int length) {
+    return copy(vaddr, buffer, offset, length, false);
+  }
+
+  /**
+   * Copy bytes from a kernel buffer into user memory.
+   *
+   * @param vaddr The user virtual address of the first byte.
+   * @param buffer The kernel buffer.
+   * @param offset Where in the buffer the first byte is.
+   * @param length The number of bytes to copy.
+   * @return The number of bytes copied, which is less than length if
+   * an address outside the address space, or a read-only page, is
+   * reached.
+   */
+  public int copyOut(int vaddr, byte buffer[], int offset, int length) {
+    return copy(vaddr, buffer, offset, length, true);
+  }
+
+  /**
+   * Copy a NUL-terminated string from user memory.
+   *
+   * @param vaddr The user virtual address of the string.
+   * @param maxLength The greatest length of string accepted, not
+   * counting the NUL.
+   * @return The string, or null if it runs outside the address space,
+   * or no NUL is found within maxLength + 1 bytes.
+   */
+  public String copyInString(int vaddr, int maxLength) {
+    byte buffer[] = BufferPool.get();
+    StringBuffer sb = new StringBuffer();
+    String result = null;
+    while (result == null && sb.length() <= maxLength) {
+      // Stop each chunk at a page boundary, so as not to fault in a
+      // page beyond the end of the string.
+      int chunk = Machine.PageSize - vaddr % Machine.PageSize;
+      chunk = Math.min(chunk, Math.min(buffer.length,
+				       maxLength + 1 - sb.length()));
+      int n = copyIn(vaddr, buffer, 0, chunk);
+      int i;
+      for (i = 0; i < n && buffer[i] != 0; i++)
+	sb.append((char)(buffer[i] & 0xff));
+      if (i < n)
+	result = sb.toString();
+      else if (n < chunk)
+	break;
+      vaddr += n;
+    }
+    BufferPool.release(buffer);
+    return result;
+  }
+
+  /**
+   * Read from a file straight into user memory, at the file's current
+   * position.
+   *
+   * @param file The file.
+   * @param vaddr The user virtual address of the first byte.
+   * @param length The number of bytes to read.
+   * @return The number of bytes read, which is less than length if the
+   * end of the file, or an address outside the address space or a
+   * read-only page, is reached.
+   */
+  public int readFile(OpenFile file, int vaddr, int length) {
+    return transfer(file, vaddr, length, true);
+  }
+
+  /**
+   * Write to a file straight from user memory, at the file's current
+   * position.
+   *
+   * @param file The file.
+   * @param vaddr The user virtual address of the first byte.
+   * @param length The number of bytes to write.
+   * @return The number of bytes written, which is less than length if
+   * an address outside the address space is reached, or the file
+   * cannot be extended.
+   */
+  public int writeFile(OpenFile file, int vaddr, int length) {
+    return transfer(file, vaddr, length, false);
+  }
+
+  /**
+   * Move bytes between user memory and a file, a page at a time, with
+   * the file reading or writing the frame in main memory directly.
+   * File I/O may block, letting other threads run and fault, so unlike
+   * copy(), this cannot keep the page in place by disabling interrupts;
+   * instead the frame is pinned (see Pager.pin()) for the duration of
+   * each page's transfer.
+   *
+   * @param file The file.
+   * @param vaddr The user virtual address of the first byte.
+   * @param length The number of bytes to move.
+   * @param out true to read from the file into user memory, false to
+   * write user memory to the file.
+   * @return The number of bytes moved.
+   */
+  private int transfer(OpenFile file, int vaddr, int length, boolean out) {
+    int done = 0;
+    while (done < length) {
+      int addr = vaddr + done;
+      if (!(out ? handleWriteFault(addr) : handlePageFault(addr)))
+	break;			// outside the address space
+
+      int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+      TranslationEntry entry = pageTable[addr / Machine.PageSize];
+      boolean ok = entry.valid && !(out && entry.readOnly);
+      int frame = entry.physicalPage;
+      if (ok) {
+	Pager.pin(frame);
+	entry.use = true;
+	if (out)
+	  entry.dirty = true;
+      }
+      Interrupt.setLevel(oldLevel);
+      if (!ok)
+	continue;		// evicted again before we got to it
+
+      int paddr = frame * Machine.PageSize + addr % Machine.PageSize;
+      int chunk = Math.min(length - done,
+			   Machine.PageSize - addr % Machine.PageSize);
+      int n = out ? file.read(Machine.mainMemory, paddr, chunk)
+	: file.write(Machine.mainMemory, paddr, chunk);
+
+      oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+      Pager.unpin(frame);
+      Interrupt.setLevel(oldLevel);
+      if (n <= 0)
+	break;
+      done += n;
+      if (n < chunk)
+	break;
+    }
+    return done;
+  }
+
+  /**
+   * Copy bytes between user memory and a kernel buffer.  The pages
+   * involved are brought in (and, when copying out, made private, if
+   * they are shared copy-on-write) a page at a time; then, with
+   * interrupts disabled so that the page cannot be evicted meanwhile,
+   * the bytes are moved with a single System.arraycopy() for each run
+   * of pages that are resident in consecutive frames.
+   *
+   * @param vaddr The user virtual address of the first byte.
+   * @param buffer The kernel buffer.
+   * @param offset The index in the buffer of the first byte.
+   * @param length The number of bytes to copy.
+   * @param out true to copy into user memory, false to copy from it.
+   * @return The number of bytes copied.
+   */
+  private int copy(int vaddr, byte buffer[], int offset, int length,
+		   boolean out) {
+    Debug.ASSERT(offset >= 0 && length >= 0
+		 && offset + length <= buffer.length,
+		 "AddrSpace.copy: kernel buffer too small");
+    int done = 0;
+    while (done < length) {
+      int addr = vaddr + done;
+      if (!(out ? handleWriteFault(addr) : handlePageFault(addr)))
+	break;			// outside the address space
+
+      int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+      int vpn = addr / Machine.PageSize;
+      int pageOffset = addr % Machine.PageSize;
+      int paddr = -1, run = 0;
+      // Extend the run while the next page follows in physical memory.
+      while (done + run < length && vpn < pageTable.length) {
+	TranslationEntry entry = pageTable[vpn];
+	if (!entry.valid || (out && entry.readOnly))
+	  break;
+	int frameAddr = entry.physicalPage * Machine.PageSize;
+	if (paddr == -1)
+	  paddr = frameAddr + pageOffset;
+	else if (frameAddr != paddr + run)
+	  break;
+	entry.use = true;
+	if (out)
+	  entry.dirty = true;
+	run += Math.min(Machine.PageSize - pageOffset, length - done - run);
+	pageOffset = 0;
+	vpn++;
+      }
+      if (run > 0) {
+	if (out)
+	  System.arraycopy(buffer, offset + done, Machine.mainMemory, paddr,
+			   run);
+	else
+	  System.arraycopy(Machine.mainMemory, paddr, buffer, offset + done,
+			   run);
+	done += run;
+      }
+      Interrupt.setLevel(oldLevel);
+      // If run is 0, the page was evicted again before we got to it.
+    }
+    return done;
+  }
+
+  /**
+   * Return the physical frames and swap slots used by this address
+   * space, after unmapping any mapped files.  Shared frames stay
+   * allocated to the address spaces still sharing them.  Called when
+   * the program exits.
+   */
+  public void free() {
+    if (pageTable == null)
+      return;
+    PageTraceRecorder.finish(this);
+    PageMerger.finish(this);
+    while (!mappings.isEmpty())
+      munmap(mappings.get(0).firstPage * Machine.PageSize);
+    files.closeAll();
+    Pager.acquire();
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    TLBManager.forget(this);
+    for (int i = 0; i < pageTable.length; i++) {
+      if (pageTable[i].valid)
+	Pager.releaseFrame(pageTable[i].physicalPage, this);
+      pageTable[i].valid = false;
+    }
+    Interrupt.setLevel(oldLevel);
+    SwapSpace swap = Pager.getSwap();
+    if (swap != null) {
+      int numSlots = 0;
+      for (int i = 0; i < pageTable.length; i++) {
+	if (swapSlot[i] != -1) {
+	  swap.freePage(swapSlot[i]);
+	  numSlots++;
+	}
+      }
+      swap.unreserve(numCommitted - numSlots);
+    }
+    Pager.release();
+    numCommitted = 0;
+    swapSlot = null;
+    pageTable = null;
+    image = null;
+  }
+
+  /**
+   * Note that another thread is to run in this address space.
+   */
+  public void addThread() {
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    numThreads++;
+    Interrupt.setLevel(oldLevel);
+  }
+
+  /**
+   * Note that a thread running in this address space has exited.
+   *
+   * @return The number of threads still running in it; if none, the
+   * program has exited.
+   */
+  public int removeThread() {
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    int n = --numThreads;
+    Interrupt.setLevel(oldLevel);
+    return n;
+  }
+
+  /**
+   * Find room for the stack of a new thread: that of a thread that
+   * has exited, or else StackPages new pages added at the top of the
+   * address space, above a guard page.  The guard page is never
+   * mapped, and takes no swap: its page table entry stays invalid, and
+   * handlePageFault() refuses it, so a thread that overflows its stack
+   * takes a page fault that cannot be handled, and exits with status
+   * -1, rather than overwriting whatever lies below.
+   *
+   * @return The address just above the stack, for the initial stack
+   * pointer, or -1 if the address space could not be extended.
+   */
+  public int allocateStack() {
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    int top = freeStacks.isEmpty() ? -1
+      : freeStacks.remove(freeStacks.size() - 1).intValue();
+    Interrupt.setLevel(oldLevel);
+    if (top != -1)
+      return top;
+    if (pageTable.length + 1 + StackPages > MaxPages)
+      return -1;
+    int numPages = grow(1 + StackPages, 1, null);
+    return numPages == -1 ? -1 : (numPages + 1 + StackPages) * Machine.PageSize;
+  }
+
+  /**
+   * Make the stack of an exited thread available to new threads.
+   *
+   * @param top The address returned by allocateStack().
+   */
+  public void freeStack(int top) {
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    freeStacks.add(Integer.valueOf(top));
+    Interrupt.setLevel(oldLevel);
+  }
+
+  /**
+   * Add pages, invalid until first touched, at the top of the address
+   * space, either as memory (zero-filled, since no segment overlaps
+   * them) or to hold a mapping.  The page table entries of the
+   * existing pages are kept, so translations cached in the TLB stay
+   * good.
+   *
+   * @param numNew The number of pages to add.
+   * @param numGuard The number of the new pages, at the bottom, that
+   * are guard pages, never mapped (and for which no swap is reserved).
+   * @param m The mapping to occupy the pages, or null if they are
+   * ordinary memory, for which swap slots must be reserved.
+   * @return The number of pages the address space had before, that is,
+   * the first new page, or -1 if there is no room in the swap area.
+   */
+  private int grow(int numNew, int numGuard, Mapping m) {
+    Pager.acquire();
+    int numPages = pageTable.length;
+    if (m == null && !commit(numNew - numGuard)) {
+      Pager.release();
+      Debug.println('+', "AddrSpace.grow: no swap space for "
+		    + (numNew - numGuard) + " pages");
+      return -1;
+    }
+
+    TranslationEntry table[] = new TranslationEntry[numPages + numNew];
+    System.arraycopy(pageTable, 0, table, 0, numPages);
+    for (int i = numPages; i < table.length; i++) {
+      table[i] = new TranslationEntry();
+      table[i].virtualPage = i;
+      table[i].physicalPage = -1;
+      table[i].valid = false;
+      table[i].use = false;
+      table[i].dirty = false;
+      table[i].readOnly = false;
+    }
+    boolean newCow[] = new boolean[table.length];
+    System.arraycopy(cow, 0, newCow, 0, numPages);
+    boolean newVacant[] = new boolean[table.length];
+    System.arraycopy(vacant, 0, newVacant, 0, numPages);
+    boolean newGuard[] = new boolean[table.length];
+    System.arraycopy(guard, 0, newGuard, 0, numPages);
+    for (int i = numPages; i < numPages + numGuard; i++)
+      newGuard[i] = true;
+    Mapping newMapping[] = new Mapping[table.length];
+    System.arraycopy(mapping, 0, newMapping, 0, numPages);
+    if (m != null) {
+      m.firstPage = numPages;
+      for (int i = numPages; i < table.length; i++)
+	newMapping[i] = m;
+    }
+
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    if (swapSlot != null) {
+      int newSwapSlot[] = new int[table.length];
+      System.arraycopy(swapSlot, 0, newSwapSlot, 0, numPages);
+      for (int i = numPages; i < table.length; i++)
+	newSwapSlot[i] = -1;
+      swapSlot = newSwapSlot;
+    }
+    cow = newCow;
+    vacant = newVacant;
+    guard = newGuard;
+    mapping = newMapping;
+    if (loadedTable == pageTable) {
+      Machine.setPageTable(table);
+      loadedTable = table;
+    }
+    pageTable = table;
+    Interrupt.setLevel(oldLevel);
+    Pager.release();
+    Debug.println('a', "AddrSpace.grow: " + numPages + " to "
+		  + table.length + " pages");
+    return numPages;
+  }
+
+  /**
+   * Map the contents of an open file into the address space, at the
+   * first hole left by an unmapped file that is big enough, or else at
+   * new pages at the top of the address space.  Nothing is read here:
+   * each page is read from the file when it is first touched.  No swap
+   * space is needed, since the pages are written back to the file
+   * itself.  The mapping keeps the file open, so the program may close
+   * its id.
+   *
+   * @param id The OpenFileId of the file.
+   * @param length The number of bytes to map, from the start of the
+   * file.  The mapping may extend past the end of the file, which is
+   * then extended when the pages beyond it are written back.
+   * @return The address of the first byte of the mapping, or -1 if id
+   * does not denote an open file (a pipe will not do), length is not
+   * positive, or the address space would grow too large.
+   */
+  public int mmap(int id, int length) {
+    if (length <= 0 || pagesBelow(length) > MaxPages
+	|| files.get(id) instanceof Pipe.End)
+      return -1;
+    FileTable.Entry file = files.hold(id);
+    if (file == null)
+      return -1;
+    Mapping m = new Mapping(file, length);
+    int numPages = m.numPages();
+
+    Pager.acquire();
+    int first = -1, run = 0;
+    for (int vpn = stackTop; vpn < pageTable.length && first == -1; vpn++) {
+      run = vacant[vpn] ? run + 1 : 0;
+      if (run == numPages)
+	first = vpn - numPages + 1;
+    }
+    if (first != -1) {
+      m.firstPage = first;
+      for (int vpn = first; vpn < first + numPages; vpn++) {
+	vacant[vpn] = false;
+	mapping[vpn] = m;
+      }
+    }
+    Pager.release();
+    if (first == -1) {
+      if (pageTable.length + numPages > MaxPages) {
+	FileTable.drop(file);
+	return -1;
+      }
+      first = grow(numPages, 0, m);
+    }
+
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    mappings.add(m);
+    Interrupt.setLevel(oldLevel);
+    Debug.println('a', "AddrSpace.mmap: " + length + " bytes at page "
+		  + first);
+    return first * Machine.PageSize;
+  }
+
+  /**
+   * Unmap a mapped file, writing back any of its pages that have been
+   * changed, and leave a hole in the address space where it was.
+   *
+   * @param addr The address returned by mmap().
+   * @return 0, or -1 if no mapping starts at addr.
+   */
+  public int munmap(int addr) {
+    Pager.acquire();
+    Mapping m = null;
+    for (int i = 0; i < mappings.size() && m == null; i++) {
+      if (mappings.get(i).firstPage * Machine.PageSize == addr)
+	m = mappings.get(i);
+    }
+    if (m == null) {
+      Pager.release();
+      return -1;
+    }
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    mappings.remove(m);
+    Interrupt.setLevel(oldLevel);
+
+    for (int vpn = m.firstPage; vpn < m.firstPage + m.numPages(); vpn++) {
+      int frame = pageTable[vpn].physicalPage;
+      if (pageTable[vpn].valid) {
+	pageOut(vpn);
+	oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+	Pager.releaseFrame(frame, this);
+	Interrupt.setLevel(oldLevel);
+      }
+      pageTable[vpn].dirty = false;
+      pageTable[vpn].readOnly = false;
+      cow[vpn] = false;
+      mapping[vpn] = null;
+      vacant[vpn] = true;
+    }
+    Pager.release();
+    FileTable.drop(m.file);
+    Debug.println('a', "AddrSpace.munmap: pages " + m.firstPage + " to "
+		  + (m.firstPage + m.numPages() - 1));
+    return 0;
+  }
+
+  /**
+   * Fill a frame with a page of a mapped file, zeroing whatever lies
+   * beyond the end of the file.  Called with the pager lock held.
+   *
+   * @param vpn The virtual page, which is part of a mapping.
+   * @param base The physical address of the frame.
+   */
+  private void readMapped(int vpn, int base) {
+    Mapping m = mapping[vpn];
+    int offset = (vpn - m.firstPage) * Machine.PageSize;
+    int n = Math.max(0, m.file.file.readAt(Machine.mainMemory, base,
+		       Math.min(Machine.PageSize, m.length - offset), offset));
+    for (int j = n; j < Machine.PageSize; j++)
+      Machine.mainMemory[base + j] = 0;
+    Machine.stats.numMappedIns++;
+  }
+
+  /**
+   * Write a page of a mapped file back to the file, leaving out
+   * whatever lies beyond the end of the mapping.  Called with the
+   * pager lock held.
+   *
+   * @param vpn The virtual page, which is part of a mapping.
+   * @param base The physical address of the frame holding it.
+   */
+  private void writeMapped(int vpn, int base) {
+    Mapping m = mapping[vpn];
+    int offset = (vpn - m.firstPage) * Machine.PageSize;
+    int n = Math.min(Machine.PageSize, m.length - offset);
+    if (m.file.file.writeAt(Machine.mainMemory, base, n, offset) != n)
+      Debug.println('+', "AddrSpace: unable to write back page " + vpn
+		    + " of a mapped file");
+    Machine.stats.numMappedOuts++;
+  }
+
+  /**
+   * @return The SpaceId given to the process by the ProcessTable, or
+   * -1 if it has none.
+   */
+  public int getSpaceId() {
+    return spaceId;
+  }
+
+  /**
+   * Set the SpaceId of the process.  Called by the ProcessTable.
+   *
+   * @param id The SpaceId.
+   */
+  void setSpaceId(int id) {
+    spaceId = id;
+  }
+
+  /**
+   * Print how many of the frames shared copy-on-write with forked
+   * address spaces have since had to be copied, if there were any.
+   *
+   * @param name The name of the program, to label the report.
+   */
+  public void printSharing(String name) {
+    if (numShared > 0)
+      Debug.println('+', name + ": copy-on-write: " + numShared
+		    + " frames shared, " + numCopied + " copied");
   }
 
   /**
@@ -156,7 +1475,7 @@ public class AddrSpace {
     // but that turns out to be to accomodate compiler convention that
     // assumes space in the current frame to save four argument registers.
     // That code rightly belongs in start.s and has been moved there.
-    int sp = pageTable.length * Machine.PageSize;
+    int sp = stackTop * Machine.PageSize;
     Machine.writeRegister(Machine.StackReg, sp);
     Debug.println('a', "Initializing stack register to " + sp);
   }
@@ -173,10 +1492,17 @@ public class AddrSpace {
    * On a context switch, restore any machine state specific
    * to this address space.
    *
-   * For now, just tell the machine where to find the page table.
+   * Tell the machine where to find the page table, unless it is
+   * already using it (as when switching between threads of the same
+   * address space), and, if the machine has a TLB, flush it unless it
+   * already holds translations for this address space.
    */
   public void restoreState() {
-    Machine.setPageTable(pageTable);
+    if (loadedTable != pageTable) {
+      Machine.setPageTable(pageTable);
+      loadedTable = pageTable;
+    }
+    TLBManager.switchTo(this);
   }
 
   /**
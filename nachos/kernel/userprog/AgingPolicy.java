@@ -0,0 +1,69 @@
+// AgingPolicy.java
+//	LRU approximation by aging of reference bits.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+/**
+ * The aging algorithm approximates LRU with a counter per frame.  At
+ * every tick, each counter is shifted right one bit, and the page's
+ * reference bit is shifted in at the top and then cleared.  A page's
+ * counter therefore records whether it was referenced in each of the
+ * last 32 intervals, most recent first, and the page with the smallest
+ * counter is (approximately) the least recently used.
+ */
+public class AgingPolicy implements ReplacementPolicy {
+
+  /** The age counter of each frame. */
+  private int counters[];
+
+  public String getName() {
+    return "aging";
+  }
+
+  public void loaded(Frames frames, int frame) {
+    if (counters == null)
+      counters = new int[frames.numFrames()];
+    counters[frame] = 0x80000000;	// it is about to be referenced
+  }
+
+  public void tick(Frames frames) {
+    if (counters == null)
+      counters = new int[frames.numFrames()];
+    for (int f = 0; f < counters.length; f++) {
+      if (!frames.isResident(f))
+	continue;
+      counters[f] >>>= 1;
+      if (frames.isReferenced(f)) {
+	counters[f] |= 0x80000000;
+	frames.clearReferenced(f);
+      }
+    }
+  }
+
+  public int chooseVictim(Frames frames) {
+    if (counters == null)
+      counters = new int[frames.numFrames()];
+    int victim = -1;
+    for (int f = 0; f < counters.length; f++) {
+      if (!frames.isResident(f))
+	continue;
+      // Pages referenced since the last tick count as newest.
+      if (frames.isReferenced(f))
+	continue;
+      if (victim == -1
+	  || (counters[f] & 0xffffffffL) < (counters[victim] & 0xffffffffL))
+	victim = f;
+    }
+    if (victim == -1) {
+      // Everything has been referenced since the last tick.
+      for (int f = 0; f < counters.length && victim == -1; f++)
+	if (frames.isResident(f))
+	  victim = f;
+    }
+    return victim;
+  }
+}
@@ -0,0 +1,60 @@
+// BufferPool.java
+//	A pool of kernel buffers for copying data to and from user
+//	memory.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+import nachos.machine.Interrupt;
+import nachos.machine.Machine;
+
+/**
+ * System calls that move data between user memory and a device or file
+ * need a kernel buffer to hold it on the way.  Rather than allocate one
+ * sized to each request, they take a fixed-size buffer from this pool
+ * and move the data through it a buffer at a time, returning the buffer
+ * to the pool when they are done.  Only a few buffers are kept; if the
+ * pool is empty a new buffer is made, and if it is full a returned
+ * buffer is dropped.
+ */
+public class BufferPool {
+
+  /** Size of each buffer, in bytes. */
+  public static final int BufferSize = 8 * Machine.PageSize;
+
+  /** Maximum number of free buffers kept. */
+  private static final int MaxFree = 4;
+
+  /** The free buffers; free[0..numFree-1] are valid. */
+  private static final byte free[][] = new byte[MaxFree][];
+
+  /** Number of free buffers. */
+  private static int numFree = 0;
+
+  /**
+   * Get a buffer.
+   *
+   * @return A buffer of BufferSize bytes, with arbitrary contents.
+   */
+  public static byte[] get() {
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    byte buffer[] = numFree > 0 ? free[--numFree] : null;
+    Interrupt.setLevel(oldLevel);
+    return buffer != null ? buffer : new byte[BufferSize];
+  }
+
+  /**
+   * Return a buffer to the pool.
+   *
+   * @param buffer A buffer obtained from get().
+   */
+  public static void release(byte buffer[]) {
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    if (numFree < MaxFree)
+      free[numFree++] = buffer;
+    Interrupt.setLevel(oldLevel);
+  }
+}
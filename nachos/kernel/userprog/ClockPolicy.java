@@ -0,0 +1,45 @@
+// ClockPolicy.java
+//	Clock (second chance) page replacement.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+/**
+ * The clock algorithm: a hand sweeps around the frames, clearing the
+ * reference bit of each page it passes, and stops at the first page
+ * whose reference bit was already clear, i.e., one that has not been
+ * referenced since the hand last went by.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+  /** The frame at which the clock hand currently points. */
+  private int hand = 0;
+
+  public String getName() {
+    return "clock";
+  }
+
+  public void loaded(Frames frames, int frame) { }
+
+  public void tick(Frames frames) { }
+
+  public int chooseVictim(Frames frames) {
+    int numFrames = frames.numFrames();
+
+    // Two full turns suffice: the first clears every reference bit.
+    for (int i = 0; i < 2 * numFrames; i++) {
+      int frame = hand;
+      hand = (hand + 1) % numFrames;
+      if (!frames.isResident(frame))
+	continue;
+      if (frames.isReferenced(frame))
+	frames.clearReferenced(frame);	// second chance
+      else
+	return frame;
+    }
+    return -1;
+  }
+}
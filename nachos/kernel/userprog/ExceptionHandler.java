@@ -5,7 +5,12 @@
 package nachos.kernel.userprog;
 
 import nachos.Debug;
+import nachos.machine.Interrupt;
 import nachos.machine.Machine;
+import nachos.kernel.HostProfiler;
+import nachos.kernel.KernelEvents;
+import nachos.kernel.filesys.OpenFile;
+import nachos.kernel.threads.Scheduler;
 import nachos.kernel.userprog.Syscall;
 
 /**
@@ -21,6 +26,9 @@ import nachos.kernel.userprog.Syscall;
  */
 public class ExceptionHandler implements nachos.machine.ExceptionHandler {
 
+  /** Longest file name accepted from a user program. */
+  private static final int MaxNameLength = 255;
+
   /**
    * Entry point into the Nachos kernel.  Called when a user program
    * is executing, and either does a syscall, or generates an addressing
@@ -46,7 +54,14 @@ public class ExceptionHandler implements nachos.machine.ExceptionHandler {
     int type = Machine.readRegister(2);
 
     if (which == Machine.SyscallException) {
-      
+      long hostTime = HostProfiler.start();
+      AddrSpace space = ((UserThread)Scheduler.currentThread()).space;
+      space.usage.countSyscall(type);
+      SyscallTracer.Call call = space.tracer.enter(type);
+      Object event =
+	KernelEvents.beginSyscall(Scheduler.currentThread(), type,
+				  SyscallTracer.nameOf(type));
+
       switch (type) {
       case Syscall.SC_Halt:
 	Syscall.halt();
@@ -55,17 +70,130 @@ public class ExceptionHandler implements nachos.machine.ExceptionHandler {
 	Syscall.exit(Machine.readRegister(4));
 	break;
       case Syscall.SC_Exec:
-	Syscall.exec("");
+	Machine.writeRegister(2, Syscall.exec
+			      (space.copyInString(Machine.readRegister(4),
+						  MaxNameLength)));
+	break;
+      case Syscall.SC_Join:
+	Machine.writeRegister(2, Syscall.join(Machine.readRegister(4)));
+	break;
+      case Syscall.SC_Create:
+	Syscall.create(space.copyInString(Machine.readRegister(4),
+					  MaxNameLength));
+	break;
+      case Syscall.SC_Remove:
+	Syscall.remove(space.copyInString(Machine.readRegister(4),
+					  MaxNameLength));
+	break;
+      case Syscall.SC_Open:
+	Machine.writeRegister(2, Syscall.open
+			      (space.copyInString(Machine.readRegister(4),
+						  MaxNameLength)));
+	break;
+      case Syscall.SC_Close:
+	Syscall.close(Machine.readRegister(4));
 	break;
       case Syscall.SC_Write:
 	int ptr = Machine.readRegister(4);
 	int len = Machine.readRegister(5);
-	byte buf[] = new byte[len];
+	OpenFile file = space.files.get(Machine.readRegister(6));
+	if (file != null) {
+	  // Files are written straight from the user's pages.
+	  space.tracer.transferred(call, space.writeFile(file, ptr, len));
+	  break;
+	}
+	byte buf[] = BufferPool.get();
+
+	// Write a buffer at a time, stopping at the first address that
+	// is not mapped, or the first short write.
+	int done = 0;
+	while (done < len) {
+	  int chunk = Math.min(len - done, buf.length);
+	  int n = space.copyIn(ptr + done, buf, 0, chunk);
+	  if (n > 0)
+	    n = Syscall.write(buf, n, Machine.readRegister(6));
+	  if (n > 0)
+	    done += n;
+	  if (n < chunk)
+	    break;
+	}
+	BufferPool.release(buf);
+	space.tracer.transferred(call, done);
+	break;
+      case Syscall.SC_Read:
+	ptr = Machine.readRegister(4);
+	len = Machine.readRegister(5);
+	file = space.files.get(Machine.readRegister(6));
+	if (file instanceof Pipe.End) {
+	  // A pipe returns whatever it has, straight into the user's
+	  // pages; its write end refuses.
+	  Machine.writeRegister(2, ((Pipe.End)file).read(space, ptr, len));
+	  break;
+	}
+	if (file != null) {
+	  // Files are read straight into the user's pages.
+	  Machine.writeRegister(2, space.readFile(file, ptr, len));
+	  break;
+	}
+	buf = BufferPool.get();
 
-	System.arraycopy(Machine.mainMemory, ptr, buf, 0, len);
-	Syscall.write(buf, len, Machine.readRegister(6));
+	// The console returns at most a line per call, so a single
+	// buffer-load is all that is read.
+	int n = Syscall.read(buf, Math.min(Math.max(len, 0), buf.length),
+			     Machine.readRegister(6));
+	Machine.writeRegister(2, space.copyOut(ptr, buf, 0, n));
+	BufferPool.release(buf);
+	break;
+      case Syscall.SC_GetRUsage:
+	int rusage[] = Syscall.getRUsage();
+	byte words[] = new byte[4 * rusage.length];
+
+	for (int i = 0; i < rusage.length; i++)
+	  putWord(words, 4*i, rusage[i]);
+	space.copyOut(Machine.readRegister(4), words, 0, words.length);
+	break;
+      case Syscall.SC_Trace:
+	Syscall.trace(Machine.readRegister(4));
+	break;
+      case Syscall.SC_Fork:
+	Machine.writeRegister(2, Syscall.fork(Machine.readRegister(4)));
+	break;
+      case Syscall.SC_Yield:
+	Syscall.yield();
+	break;
+      case Syscall.SC_ForkProcess:
+	Machine.writeRegister(2, Syscall.forkProcess());
+	break;
+      case Syscall.SC_Sbrk:
+	Machine.writeRegister(2, Syscall.sbrk(Machine.readRegister(4)));
+	break;
+      case Syscall.SC_Mmap:
+	Machine.writeRegister(2, Syscall.mmap(Machine.readRegister(4),
+					      Machine.readRegister(5)));
+	break;
+      case Syscall.SC_Munmap:
+	Machine.writeRegister(2, Syscall.munmap(Machine.readRegister(4)));
+	break;
+      case Syscall.SC_Pipe:
+	int ends[] = Syscall.pipe();
+	if (ends == null) {
+	  Machine.writeRegister(2, -1);
+	  break;
+	}
+	byte pair[] = new byte[8];
+	putWord(pair, 0, ends[0]);
+	putWord(pair, 4, ends[1]);
+	if (space.copyOut(Machine.readRegister(4), pair, 0, 8) < 8) {
+	  Syscall.close(ends[0]);
+	  Syscall.close(ends[1]);
+	  Machine.writeRegister(2, -1);
+	  break;
+	}
+	Machine.writeRegister(2, 0);
 	break;
       }
+      space.tracer.leave(call);
+      KernelEvents.endSyscall(event);
 
       // Update the program counter to point to the next instruction
       // after the SYSCALL instruction.
@@ -75,12 +203,83 @@ public class ExceptionHandler implements nachos.machine.ExceptionHandler {
 			    Machine.readRegister(Machine.NextPCReg));
       Machine.writeRegister(Machine.NextPCReg,
 			    Machine.readRegister(Machine.NextPCReg)+4);
+      HostProfiler.stop(HostProfiler.SYSCALL, hostTime);
+      return;
+    }
+
+    if (which == Machine.PageFaultException) {
+      long hostTime = HostProfiler.start();
+      UserThread thread = (UserThread)Scheduler.currentThread();
+      int vaddr = Machine.readRegister(Machine.BadVAddrReg);
+      Object event =
+	KernelEvents.beginPageFault(thread, vaddr);
+      boolean handled;
+      if (TLBManager.enabled()) {
+	// A TLB miss, which may or may not also be a page fault.
+	int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+	handled = TLBManager.refill(thread.space, vaddr);
+	Interrupt.setLevel(oldLevel);
+      } else {
+	handled = thread.space.handlePageFault(vaddr);
+      }
+      KernelEvents.endPageFault(event);
+      HostProfiler.stop(HostProfiler.PAGEFAULT, hostTime);
+
+      // The PC has not been advanced, so returning restarts the
+      // faulting instruction.
+      if (handled)
+	return;
+      Debug.println('+', "Unable to handle page fault at virtual address "
+		    + vaddr + " in " + thread.getName());
+      Syscall.exit(-1);
       return;
     }
 	
+    if (which == Machine.ReadOnlyException) {
+      // A write to a page shared copy-on-write after a fork.
+      long hostTime = HostProfiler.start();
+      UserThread thread = (UserThread)Scheduler.currentThread();
+      int vaddr = Machine.readRegister(Machine.BadVAddrReg);
+      Object event =
+	KernelEvents.beginPageFault(thread, vaddr);
+      boolean handled = thread.space.handleWriteFault(vaddr);
+      KernelEvents.endPageFault(event);
+      HostProfiler.stop(HostProfiler.PAGEFAULT, hostTime);
+      if (handled)
+	return;
+      Debug.println('+', "Write to read-only virtual address "
+		    + vaddr + " in " + thread.getName());
+      Syscall.exit(-1);
+      return;
+    }
+
+    if (which == Machine.AddressErrorException) {
+      // For example, a thread started by Fork returning from its
+      // procedure (see Syscall.fork()).
+      Debug.println('+', "Address error at virtual address "
+		    + Machine.readRegister(Machine.BadVAddrReg) + " in "
+		    + Scheduler.currentThread().getName());
+      Syscall.exit(-1);
+      return;
+    }
+
     System.out.println("Unexpected user mode exception " + which +
 		       ", " + type);
     Debug.ASSERT(false);
 
   }
+
+  /**
+   * Store a word into a buffer, in the little-endian byte order
+   * used by the simulated MIPS processor, for copying out to user
+   * memory.
+   *
+   * @param buffer The buffer.
+   * @param index Where in the buffer to store the word.
+   * @param value The value to store.
+   */
+  private static void putWord(byte buffer[], int index, int value) {
+    for (int i = 0; i < 4; i++)
+      buffer[index + i] = (byte)(value >> (8 * i));
+  }
 }
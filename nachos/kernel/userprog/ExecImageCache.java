@@ -0,0 +1,155 @@
+// ExecImageCache.java
+//	Cache of executable files, so that programs run repeatedly
+//	are loaded from memory.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nachos.Debug;
+import nachos.kernel.Nachos;
+import nachos.kernel.filesys.OpenFile;
+import nachos.machine.Interrupt;
+
+/**
+ * The exec image cache holds the contents of recently executed NOFF
+ * files, with their headers already parsed, so that a program that is
+ * run again and again is read from the file system only once.  An
+ * executable is read with a single bulk read of the whole file, rather
+ * than a read per header field and another per page.
+ *
+ * Images are keyed by file name, length and modification stamp (see
+ * FileSystem.getModificationStamp()), so that an executable that has
+ * been rebuilt is read afresh.  If the file system cannot supply a
+ * stamp, or no name is known, the image is read but not cached, and
+ * the same goes for an image larger than the whole cache.  The cache
+ * is bounded by the total size of the images in it, and evicts
+ * the least recently used image first; an address space keeps using
+ * its image even after the image has been evicted.
+ */
+class ExecImageCache {
+
+  /** Maximum total size of the cached images, in bytes. */
+  static final int MaxBytes = 256 * 1024;
+
+  /** Cached images by key, in order from least to most recently used. */
+  private static final LinkedHashMap<String, Image> images =
+    new LinkedHashMap<String, Image>(16, 0.75f, true);
+
+  /** Total size of the cached images. */
+  private static int numBytes = 0;
+
+  /** Number of loads served from the cache, and from the file. */
+  private static int numHits = 0, numMisses = 0;
+
+  /**
+   * The contents of an executable file, and its parsed header.
+   */
+  static class Image {
+
+    /**
+     * The key identifying the executable, or null if it has none (and
+     * so is not cached).
+     */
+    final String key;
+
+    /** The header of the executable. */
+    final NoffHeader header;
+
+    /** The contents of the file. */
+    private final byte contents[];
+
+    Image(String key, NoffHeader header, byte contents[]) {
+      this.key = key;
+      this.header = header;
+      this.contents = contents;
+    }
+
+    /**
+     * Copy bytes of the file into an array.
+     *
+     * @param into The array.
+     * @param index Where in the array to put the first byte.
+     * @param numBytes The number of bytes to copy.
+     * @param position The offset in the file of the first byte.
+     * @return The number of bytes copied, which is less than numBytes
+     * if the file ends first.
+     */
+    int readAt(byte into[], int index, int numBytes, long position) {
+      if (position >= contents.length)
+	return 0;
+      int n = (int)Math.min(numBytes, contents.length - position);
+      System.arraycopy(contents, (int)position, into, index, n);
+      return n;
+    }
+
+    /**
+     * @return The size of the file, in bytes.
+     */
+    int length() {
+      return contents.length;
+    }
+  }
+
+  /**
+   * Get the image of an executable, from the cache if possible.
+   * The file is closed.
+   *
+   * @param name The name of the file, or null if it is not known.
+   * @param file The open file.
+   * @return The image, or null if the file could not be read or is not
+   * a NOFF executable.
+   */
+  static Image load(String name, OpenFile file) {
+    long length = file.length();
+    long stamp = name == null ? -1
+      : Nachos.fileSystem.getModificationStamp(name);
+    String key = stamp == -1 ? null : name + ":" + length + ":" + stamp;
+
+    if (key != null) {
+      int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+      Image image = images.get(key);
+      if (image != null)
+	numHits++;
+      Interrupt.setLevel(oldLevel);
+      if (image != null) {
+	Debug.println('a', "ExecImageCache: " + name + " found in cache ("
+		      + numHits + " hits, " + numMisses + " misses)");
+	file.close();
+	return image;
+      }
+    }
+
+    byte contents[] = new byte[(int)length];
+    int n = file.readAt(contents, 0, contents.length, 0);
+    file.close();
+    NoffHeader header = NoffHeader.parseHeader(contents);
+    if (n != contents.length || header == null)
+      return null;
+    Image image = new Image(key, header, contents);
+    if (key == null || contents.length > MaxBytes)
+      return image;
+
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    numMisses++;
+    if (images.put(key, image) == null)
+      numBytes += contents.length;
+    Iterator<Map.Entry<String, Image>> lru = images.entrySet().iterator();
+    while (numBytes > MaxBytes) {
+      Image victim = lru.next().getValue();
+      lru.remove();
+      numBytes -= victim.length();
+      Debug.println('a', "ExecImageCache: evicting " + victim.key);
+    }
+    Interrupt.setLevel(oldLevel);
+    Debug.println('a', "ExecImageCache: " + name + " read, "
+		  + contents.length + " bytes");
+    return image;
+  }
+}
@@ -0,0 +1,45 @@
+// FifoPolicy.java
+//	First-in, first-out page replacement.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+/**
+ * FIFO replacement evicts the page that has been resident longest,
+ * regardless of how recently or often it has been used.  It is cheap,
+ * but can evict heavily used pages, and suffers from Belady's anomaly.
+ */
+public class FifoPolicy implements ReplacementPolicy {
+
+  /** Sequence number of the load of the page in each frame. */
+  private long loadedAt[];
+
+  /** Sequence number to be given to the next load. */
+  private long nextLoad = 0;
+
+  public String getName() {
+    return "fifo";
+  }
+
+  public void loaded(Frames frames, int frame) {
+    if (loadedAt == null)
+      loadedAt = new long[frames.numFrames()];
+    loadedAt[frame] = nextLoad++;
+  }
+
+  public void tick(Frames frames) { }
+
+  public int chooseVictim(Frames frames) {
+    int victim = -1;
+    for (int f = 0; f < frames.numFrames(); f++) {
+      if (frames.isResident(f)
+	  && (victim == -1 || loadedAt == null
+	      || loadedAt[f] < loadedAt[victim]))
+	victim = f;
+    }
+    return victim;
+  }
+}
@@ -0,0 +1,172 @@
+// FileTable.java
+//	Per-process table of open files.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+import nachos.kernel.filesys.OpenFile;
+import nachos.machine.Interrupt;
+
+/**
+ * A FileTable maps the OpenFileIds of an address space, small integers,
+ * to the files it has open.  Ids Syscall.ConsoleInput and
+ * Syscall.ConsoleOutput always denote the console, and are not in the
+ * table; files are given the lowest free id above them, up to MaxFiles.
+ *
+ * Each Open() gets an OpenFile object of its own, with its own seek
+ * position, even if the file is already open.  A forked address space
+ * inherits the open files of its parent, as in UNIX, and shares their
+ * seek positions with it; the file is closed only when the last table
+ * referring to it closes it.  A mapping of the file into memory (see
+ * AddrSpace.mmap()) holds a reference to it too, so a program may close
+ * the id of a file and go on using its mapping.
+ */
+public class FileTable {
+
+  /** Maximum number of ids, including those of the console. */
+  public static final int MaxFiles = 16;
+
+  /** An open file, with the number of tables and mappings referring to it. */
+  static class Entry {
+    final OpenFile file;
+    private int refs = 1;
+
+    Entry(OpenFile file) {
+      this.file = file;
+    }
+  }
+
+  /** The open files, indexed by id. */
+  private final Entry entries[] = new Entry[MaxFiles];
+
+  /** Lowest id given to a file. */
+  private static final int FirstId =
+    Math.max(Syscall.ConsoleInput, Syscall.ConsoleOutput) + 1;
+
+  /**
+   * Add an open file to the table.
+   *
+   * @param file The file.
+   * @return The id of the file, or -1 if the table is full (in which
+   * case the file is left open).
+   */
+  public int add(OpenFile file) {
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    int id = -1;
+    for (int i = FirstId; i < MaxFiles; i++) {
+      if (entries[i] == null) {
+	entries[i] = new Entry(file);
+	id = i;
+	break;
+      }
+    }
+    Interrupt.setLevel(oldLevel);
+    return id;
+  }
+
+  /**
+   * Look up an open file.
+   *
+   * @param id An OpenFileId.
+   * @return The file, or null if the id does not denote an open file
+   * (as is the case for the console).
+   */
+  public OpenFile get(int id) {
+    if (id < 0 || id >= MaxFiles)
+      return null;
+    Entry entry = entries[id];
+    return entry == null ? null : entry.file;
+  }
+
+  /**
+   * Remove a file from the table, closing it unless another table
+   * still refers to it.
+   *
+   * @param id The OpenFileId.
+   * @return false if the id does not denote an open file.
+   */
+  public boolean close(int id) {
+    if (id < 0 || id >= MaxFiles)
+      return false;
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    Entry entry = entries[id];
+    entries[id] = null;
+    Interrupt.setLevel(oldLevel);
+    if (entry != null)
+      drop(entry);
+    return entry != null;
+  }
+
+  /**
+   * Take a reference to an open file, which keeps it open after its id
+   * is closed, until the reference is dropped.
+   *
+   * @param id The OpenFileId.
+   * @return The reference, or null if the id does not denote an open
+   * file.
+   */
+  Entry hold(int id) {
+    if (id < 0 || id >= MaxFiles)
+      return null;
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    Entry entry = entries[id];
+    if (entry != null)
+      entry.refs++;
+    Interrupt.setLevel(oldLevel);
+    return entry;
+  }
+
+  /**
+   * Take another reference to a file already held.
+   *
+   * @param entry A reference returned by hold().
+   * @return The same reference.
+   */
+  static Entry hold(Entry entry) {
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    entry.refs++;
+    Interrupt.setLevel(oldLevel);
+    return entry;
+  }
+
+  /**
+   * Drop a reference to a file, closing it if it was the last.
+   *
+   * @param entry The reference.
+   */
+  static void drop(Entry entry) {
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    boolean last = --entry.refs == 0;
+    Interrupt.setLevel(oldLevel);
+    if (last)
+      entry.file.close();
+  }
+
+  /**
+   * Close every file in the table.  Called when the address space is
+   * freed.
+   */
+  public void closeAll() {
+    for (int id = 0; id < MaxFiles; id++)
+      close(id);
+  }
+
+  /**
+   * Give this table the open files of another, as a forked address
+   * space inherits those of its parent.
+   *
+   * @param parent The table to copy.
+   */
+  public void inherit(FileTable parent) {
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    for (int id = 0; id < MaxFiles; id++) {
+      entries[id] = parent.entries[id];
+      if (entries[id] != null)
+	entries[id].refs++;
+    }
+    Interrupt.setLevel(oldLevel);
+  }
+}
@@ -14,7 +14,6 @@
 package nachos.kernel.userprog;
 
 import nachos.Debug;
-import nachos.kernel.filesys.OpenFile;
 
 /**
  * A NoffHeader object is the kernel representation of the header
@@ -30,6 +29,9 @@ class NoffHeader {
    */
   static final int noffMagic = 0xbadfad;
 
+  /** Size of the header in the file: the magic number and three segments. */
+  static final int HeaderSize = 40;
+
   /** Information about the executable code segment. */
   NoffSegment code;
 
@@ -43,7 +45,7 @@ class NoffHeader {
   NoffSegment uninitData;
   
   /**
-   * Private constructor, to force use of readHeader() to initialize
+   * Private constructor, to force use of parseHeader() to initialize
    * a NoffHeader.
    */
   private NoffHeader() { }
@@ -62,50 +64,39 @@ class NoffHeader {
   }
 
   /**  
-   * Take four bytes read from the file and assemble them into an
-   * unsigned integer.
+   * Take four bytes read from the file, starting at a given offset,
+   * and assemble them into an unsigned integer.
    *
-   * @param raw  The four bytes read from the file.
+   * @param raw  Bytes read from the file.
+   * @param offset  The index of the first of the four bytes.
    * @return  The value of the four bytes when interpreted as an unsigned
    * integer.
    */
-  private static int convertWord(byte raw[]) {
-    return convertByte(raw[0]) |
-      (convertByte(raw[1]) << 8) | 
-      (convertByte(raw[2]) << 16) |
-      (convertByte(raw[3]) << 24);
+  private static int convertWord(byte raw[], int offset) {
+    return convertByte(raw[offset]) |
+      (convertByte(raw[offset+1]) << 8) | 
+      (convertByte(raw[offset+2]) << 16) |
+      (convertByte(raw[offset+3]) << 24);
   }
 
   /**
-   * Read a word from a file and check that it matches noffMagic.
+   * Initialize a NoffHeader object from the bytes at the beginning
+   * of an executable file, which have already been read.
    *
-   * @param f The file to read.
-   * @return true if the word read matches noffMagic, false if
-   * it does not or a word could not be read from the file.
+   * @param raw  The bytes, at least HeaderSize of them.
+   * @return  The header, or null if the magic number is wrong.
    */
-  private static boolean checkMagic(OpenFile f) {
-      byte[] raw = new byte[4];
-      if(f.read(raw, 0, 4) != 4)
-	  return(false);
-      if(convertWord(raw) != noffMagic)
-	  return(false);
-      return(true);
-  }
-
-  /**
-   * Initialize a NoffHeader object by reading its values from a file.
-   */
-  static NoffHeader readHeader(OpenFile f) {
-    NoffHeader hdr = new NoffHeader();
-    if (!checkMagic(f)) {
+  static NoffHeader parseHeader(byte raw[]) {
+    if(raw.length < HeaderSize)
+	return(null);
+    if(convertWord(raw, 0) != noffMagic) {
       Debug.println('a', "NoffHeader: Bad magic value");
       return(null);
     }
-    hdr.code = NoffSegment.readSegment(f);
-    hdr.initData = NoffSegment.readSegment(f);
-    hdr.uninitData = NoffSegment.readSegment(f);
-    if(hdr.code == null || hdr.initData == null || hdr.uninitData == null)
-	return(null);
+    NoffHeader hdr = new NoffHeader();
+    hdr.code = NoffSegment.parseSegment(raw, 4);
+    hdr.initData = NoffSegment.parseSegment(raw, 16);
+    hdr.uninitData = NoffSegment.parseSegment(raw, 28);
     return(hdr);
   }
 
@@ -124,32 +115,22 @@ class NoffHeader {
       int size;
 
       /**
-       * Private constructor, to force use of readSegment() to initialize
+       * Private constructor, to force use of parseSegment() to initialize
        * a NoffSegment.
        */
       private NoffSegment() { }
 
       /**
-       * Initialize a NoffSegment with data from a file.
+       * Initialize a NoffSegment with data read from a file.
        *
-       * @param f The file from which to read the data.
+       * @param raw The bytes read from the file.
+       * @param offset The index of the segment's description in raw.
        */
-      static NoffSegment readSegment(OpenFile f) {
+      static NoffSegment parseSegment(byte raw[], int offset) {
 	  NoffSegment seg = new NoffSegment();
-	  byte[] raw = new byte[4];
-
-	  if(f.read(raw, 0, 4) != 4)
-	      return(null);
-	  seg.virtualAddr = convertWord(raw);
-
-	  if(f.read(raw, 0, 4) != 4)
-	      return(null);
-	  seg.inFileAddr = convertWord(raw);
-
-	  if(f.read(raw, 0, 4) != 4)
-	      return(null);
-	  seg.size = convertWord(raw);
-
+	  seg.virtualAddr = convertWord(raw, offset);
+	  seg.inFileAddr = convertWord(raw, offset + 4);
+	  seg.size = convertWord(raw, offset + 8);
 	  return(seg);
       }
   }
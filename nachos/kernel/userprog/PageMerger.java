@@ -0,0 +1,276 @@
+// PageMerger.java
+//	Background merging of identical pages of different address
+//	spaces into shared, copy-on-write frames.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nachos.Debug;
+import nachos.machine.Interrupt;
+import nachos.machine.Machine;
+import nachos.machine.NachosThread;
+import nachos.machine.Timer;
+import nachos.machine.TranslationEntry;
+import nachos.kernel.devices.InterruptHandler;
+import nachos.kernel.threads.Scheduler;
+import nachos.kernel.threads.Semaphore;
+
+/**
+ * The page merger is a kernel thread that looks for frames holding
+ * identical copies of the same virtual page in different address
+ * spaces, as happens when several instances of a program run (their
+ * data segments, stacks, and pages never written but zero-filled are
+ * alike), and frees all but one of them, which the address spaces
+ * then share copy-on-write, just as after a fork.  The first write by
+ * any of them to the page raises a ReadOnlyException, and gives it a
+ * private copy again (see AddrSpace.handleWriteFault()).
+ *
+ * Every ScanInterval ticks of the timer the merger scans memory,
+ * hashing the contents of each resident page.  Only pages whose hash
+ * has not changed since the previous scan are considered, since a page
+ * being written is not worth merging only to be copied again.  Pages
+ * with the same virtual page number and hash are compared byte by byte
+ * before they are merged.  Only pages at the same virtual page can be
+ * merged, because the PhysicalMemoryManager records one virtual page
+ * per frame, for all the address spaces holding it.
+ *
+ * Merging is turned on with the -ksm command-line option.  As with the
+ * page trace recorder, the timer runs only while there are address
+ * spaces, so that it does not keep the machine from halting.  The
+ * number of frames freed is counted in the statistics, along with the
+ * most that were saved at any one time, net of copies made on write.
+ */
+public class PageMerger {
+
+  /** Number of timer interrupts between scans. */
+  private static final int ScanInterval = 10;
+
+  /** Is merging on? */
+  private static boolean enabled = false;
+
+  /** Timer that wakes the merger, or null if there are no spaces. */
+  private static Timer timer = null;
+
+  /** Number of timer interrupts since the last scan. */
+  private static int numTicks = 0;
+
+  /** Number of address spaces in existence. */
+  private static int numSpaces = 0;
+
+  /** Signalled when it is time for a scan. */
+  private static final Semaphore wakeup =
+    new Semaphore("page merger wakeup", 0);
+
+  /** Hash of the contents of each frame at the previous scan. */
+  private static final int lastHash[] = new int[Machine.NumPhysPages];
+
+  /** Has each frame been hashed at least once? */
+  private static final boolean hashed[] = new boolean[Machine.NumPhysPages];
+
+  /** Is each frame one into which pages have been merged? */
+  private static final boolean merged[] = new boolean[Machine.NumPhysPages];
+
+  /**
+   * Process command-line arguments, and start the merger thread if
+   * merging is to be done.
+   *
+   * @param args Command-line arguments.
+   */
+  public static void init(String[] args) {
+    for (int i=0; i<args.length; i++) {
+      if (args[i].equals("-ksm"))
+	enabled = true;
+    }
+    if (!enabled)
+      return;
+    Scheduler.readyToRun(new NachosThread("page merger", new Runnable() {
+      public void run() {
+	while (true) {
+	  wakeup.P();
+	  scan();
+	}
+      }
+    }));
+  }
+
+  /**
+   * Note that an address space has been created, and start the timer
+   * if it is the first.
+   *
+   * @param space The address space.
+   */
+  static void start(AddrSpace space) {
+    if (!enabled)
+      return;
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    if (numSpaces++ == 0)
+      timer = new Timer("page merger timer", new ScanHandler(), true);
+    Interrupt.setLevel(oldLevel);
+  }
+
+  /**
+   * Note that an address space is being destroyed, and stop the timer
+   * if it is the last.
+   *
+   * @param space The address space.
+   */
+  static void finish(AddrSpace space) {
+    if (!enabled)
+      return;
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    if (--numSpaces == 0) {
+      timer.cancel();
+      timer = null;
+    }
+    Interrupt.setLevel(oldLevel);
+  }
+
+  /**
+   * Scan memory, merging identical pages.  Runs in the merger thread,
+   * with the pager lock held, so that no page is brought in or evicted
+   * meanwhile, and with interrupts disabled, so that no user thread
+   * changes a page between its being compared and merged.  Since the
+   * scan does no I/O, this holds up the rest of the system only for
+   * the host time it takes, and costs no simulated time beyond that of
+   * a single interrupt-level change.
+   */
+  private static void scan() {
+    PhysicalMemoryManager memory =
+      PhysicalMemoryManager.getPhysicalMemoryManager();
+    Map<Long, Integer> candidates = new HashMap<Long, Integer>();
+    int numFreed = 0;
+
+    Pager.acquire();
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    for (int frame = 0; frame < memory.numFrames(); frame++) {
+      TranslationEntry entry = mergeableEntry(frame);
+      if (entry == null) {
+	hashed[frame] = false;
+	continue;
+      }
+      int hash = hash(frame);
+      boolean stable = hashed[frame] && lastHash[frame] == hash;
+      lastHash[frame] = hash;
+      hashed[frame] = true;
+      if (!stable)
+	continue;
+      Long key = Long.valueOf(((long)entry.virtualPage << 32)
+			  | (hash & 0xffffffffL));
+      Integer other = candidates.get(key);
+      if (other == null)
+	candidates.put(key, Integer.valueOf(frame));
+      else if (merge(other.intValue(), frame))
+	numFreed++;
+    }
+
+    int saved = 0;
+    for (int frame = 0; frame < memory.numFrames(); frame++) {
+      if (merged[frame] && memory.numHolders(frame) > 1)
+	saved += memory.numHolders(frame) - 1;
+      else
+	merged[frame] = false;
+    }
+    Interrupt.setLevel(oldLevel);
+    Pager.release();
+
+    Machine.stats.numPagesMerged += numFreed;
+    Machine.stats.maxFramesSaved =
+      Math.max(Machine.stats.maxFramesSaved, saved);
+    if (numFreed > 0)
+      Debug.println('a', "PageMerger: " + numFreed + " frames freed, "
+		    + saved + " saved in all");
+  }
+
+  /**
+   * Get the page table entry of the page in a frame, if it may be
+   * merged: it is resident, not pinned, and neither code nor part of a
+   * mapped file.  Must be called with interrupts disabled.
+   *
+   * @param frame The frame.
+   * @return The entry of the frame's owner, or null.
+   */
+  private static TranslationEntry mergeableEntry(int frame) {
+    TranslationEntry entry = Pager.residentEntry(frame);
+    if (entry == null || Pager.isPinned(frame))
+      return null;
+    AddrSpace owner =
+      PhysicalMemoryManager.getPhysicalMemoryManager().getOwner(frame);
+    return owner.isMergeable(entry.virtualPage) ? entry : null;
+  }
+
+  /**
+   * Merge the page in one frame into another frame holding the same
+   * virtual page, if their contents are the same.  Every address space
+   * holding either frame maps the page copy-on-write to the first
+   * frame, and the second is freed.  Must be called with the pager
+   * lock held and interrupts disabled.
+   *
+   * @param keep The frame to keep.
+   * @param drop The frame to free.
+   * @return true if the pages were merged.
+   */
+  private static boolean merge(int keep, int drop) {
+    PhysicalMemoryManager memory =
+      PhysicalMemoryManager.getPhysicalMemoryManager();
+    if (mergeableEntry(keep) == null || !sameContents(keep, drop))
+      return false;
+
+    int vpn = memory.getVirtualPage(keep);
+    List<AddrSpace> keepers = memory.getHolders(keep);
+    List<AddrSpace> droppers = memory.getHolders(drop);
+    for (int i = 0; i < keepers.size(); i++)
+      keepers.get(i).mapShared(vpn, keep);
+    for (int i = 0; i < droppers.size(); i++) {
+      AddrSpace space = droppers.get(i);
+      space.mapShared(vpn, keep);
+      memory.releaseFrame(drop, space);
+      memory.shareFrame(keep, space);
+    }
+    merged[keep] = true;
+    hashed[drop] = false;
+    Debug.println('a', "PageMerger: page " + vpn + " in frame " + drop
+		  + " merged into frame " + keep);
+    return true;
+  }
+
+  /**
+   * Hash the contents of a frame.
+   */
+  private static int hash(int frame) {
+    int base = frame * Machine.PageSize;
+    int h = 0;
+    for (int i = 0; i < Machine.PageSize; i++)
+      h = 31 * h + Machine.mainMemory[base + i];
+    return h;
+  }
+
+  /**
+   * Do two frames hold the same bytes?
+   */
+  private static boolean sameContents(int frame1, int frame2) {
+    int base1 = frame1 * Machine.PageSize, base2 = frame2 * Machine.PageSize;
+    for (int i = 0; i < Machine.PageSize; i++)
+      if (Machine.mainMemory[base1 + i] != Machine.mainMemory[base2 + i])
+	return false;
+    return true;
+  }
+
+  /**
+   * Interrupt handler for the merger's timer.
+   */
+  private static class ScanHandler extends InterruptHandler {
+    public void serviceDevice() {
+      if (++numTicks >= ScanInterval) {
+	numTicks = 0;
+	wakeup.V();
+      }
+    }
+  }
+}
@@ -0,0 +1,159 @@
+// PageTraceRecorder.java
+//	Recording of page-reference traces, for evaluating page
+//	replacement policies offline.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import nachos.Debug;
+import nachos.machine.Interrupt;
+import nachos.machine.Machine;
+import nachos.machine.Timer;
+import nachos.machine.TranslationEntry;
+import nachos.kernel.devices.InterruptHandler;
+
+/**
+ * The page trace recorder writes a trace of the pages referenced by
+ * user programs to a file, named by the -vmtrace <file> command-line
+ * option, which can be replayed against the various replacement
+ * policies by the replacement simulator (see ReplacementTest).
+ *
+ * The hardware gives us no record of individual references, so the
+ * trace is obtained by sampling: every Timer.DefaultInterval ticks (on
+ * average), the use bits of all resident pages are harvested (see
+ * Pager.harvestReference()), and every page found to have been used
+ * since the previous sample is recorded.  Page faults are recorded as
+ * they happen.  Each line of the trace has the form
+ *
+ *	<tick> <space> <vpn> <r|w>
+ *
+ * where <space> numbers the address spaces in order of creation, and
+ * "w" means that the page was dirty when sampled.
+ *
+ * As with the profiler, the sampling timer runs only while there are
+ * address spaces to sample, so that it does not keep the machine from
+ * halting.  All methods are called with interrupts disabled or from
+ * the timer interrupt handler.
+ */
+public class PageTraceRecorder {
+
+  /** Where the trace is written, or null if recording is off. */
+  private static PrintWriter out = null;
+
+  /** Timer that generates the sampling interrupts, or null if none. */
+  private static Timer timer = null;
+
+  /** Numbers of the address spaces being recorded. */
+  private static Map<AddrSpace, Integer> spaces =
+    new HashMap<AddrSpace, Integer>();
+
+  /** Number to be given to the next address space. */
+  private static int nextSpace = 0;
+
+  /** Number of references recorded. */
+  private static int numRecorded = 0;
+
+  /**
+   * Process command-line arguments, to see whether a trace is to be
+   * recorded.
+   *
+   * @param args Command-line arguments.
+   */
+  public static void init(String[] args) {
+    for (int i=0; i<args.length; i++) {
+      if (args[i].equals("-vmtrace")) {
+	Debug.ASSERT((i<args.length-1), "usage: -vmtrace <file>");
+	String name = args[++i];
+	try {
+	  out = new PrintWriter(new FileWriter(name));
+	} catch (IOException x) {
+	  Debug.println('+', "Unable to write page trace file: " + name);
+	}
+      }
+    }
+  }
+
+  /**
+   * Begin recording the references of an address space.
+   *
+   * @param space The address space.
+   */
+  static void start(AddrSpace space) {
+    if (out == null)
+      return;
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    spaces.put(space, Integer.valueOf(nextSpace++));
+    if (timer == null)
+      timer = new Timer("page trace timer", new SampleHandler(), true);
+    Interrupt.setLevel(oldLevel);
+  }
+
+  /**
+   * Stop recording the references of an address space, which is
+   * being destroyed.
+   *
+   * @param space The address space.
+   */
+  static void finish(AddrSpace space) {
+    if (out == null)
+      return;
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    if (spaces.remove(space) != null && spaces.isEmpty()) {
+      timer.cancel();
+      timer = null;
+      Debug.println('+', "Page trace: " + numRecorded + " references");
+    }
+    out.flush();
+    Interrupt.setLevel(oldLevel);
+  }
+
+  /**
+   * Record a reference to a page.
+   *
+   * @param space The address space.
+   * @param vpn The virtual page.
+   * @param write true if the page is known to have been modified.
+   */
+  static void reference(AddrSpace space, int vpn, boolean write) {
+    if (out == null)
+      return;
+    Integer id = spaces.get(space);
+    if (id == null)
+      return;
+    out.println(Machine.stats.totalTicks + " " + id + " " + vpn
+		+ (write ? " w" : " r"));
+    numRecorded++;
+  }
+
+  /**
+   * Record every resident page that has been referenced since the
+   * previous sample.
+   */
+  private static void sample() {
+    PhysicalMemoryManager memory =
+      PhysicalMemoryManager.getPhysicalMemoryManager();
+    for (int frame = 0; frame < memory.numFrames(); frame++) {
+      TranslationEntry entry = Pager.harvestReference(frame);
+      if (entry != null)
+	reference(memory.getOwner(frame), entry.virtualPage, entry.dirty);
+    }
+  }
+
+  /**
+   * Interrupt handler for the sampling timer.
+   */
+  private static class SampleHandler extends InterruptHandler {
+    public void serviceDevice() {
+      sample();
+    }
+  }
+}
@@ -0,0 +1,483 @@
+// Pager.java
+//	Allocation of page frames to virtual pages, with replacement
+//	when physical memory is full.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nachos.Debug;
+import nachos.machine.Interrupt;
+import nachos.machine.Machine;
+import nachos.machine.NachosThread;
+import nachos.machine.TranslationEntry;
+import nachos.kernel.devices.DiskDriver;
+import nachos.kernel.threads.Lock;
+import nachos.kernel.threads.Scheduler;
+import nachos.kernel.threads.Semaphore;
+
+/**
+ * The Pager finds page frames for address spaces that need to bring
+ * pages into memory.  A free frame is used if there is one; otherwise,
+ * if a swap area has been set up, a resident page is chosen as a
+ * victim and evicted to make room.
+ *
+ * Victims are chosen by a ReplacementPolicy, selected with the
+ * -vm <policy> command-line option (the default is the clock
+ * algorithm).  The policy sees memory through a Frames view in which
+ * a page's reference bit is its TranslationEntry.use bit, combined with
+ * a software copy of that bit into which the page trace recorder
+ * harvests the bits it samples.  Evicting a page is the business of the
+ * address space that owns it (see AddrSpace.pageOut()): clean pages are
+ * simply dropped, and dirty ones are written to the swap area.  A frame
+ * shared copy-on-write by several address spaces is evicted from each
+ * of them, and counts as referenced (or dirty) if any of their page
+ * table entries says so.  A frame that the kernel has pinned, because
+ * it is reading or writing the page while other threads may run, is
+ * not resident as far as the policy is concerned, and so is never
+ * chosen as a victim.  Nor is it freed while pinned: an address space
+ * that lets go of a pinned frame (because another of its threads
+ * shrank the heap or unmapped a file during the I/O) does so through
+ * releaseFrame(), which puts the release off until the frame is
+ * unpinned, so that the rest of the I/O cannot land in a frame that
+ * has been given to someone else.
+ *
+ * So that a fault does not usually have to wait for a page to be
+ * written out before it can have a frame, a page-out daemon keeps a
+ * few frames free.  The PhysicalMemoryManager wakes it (through a
+ * WatermarkListener) when the number of free frames falls below
+ * LowWatermark, and it then evicts pages, chosen by the same policy,
+ * until more than HighWatermark frames are free.  getFrame() still
+ * evicts a page itself if it finds no free frame.
+ *
+ * With the -zc <pages> command-line option, the swap area keeps pages
+ * deflated in a SwapCache of that many pages in memory, and goes to the
+ * disk only when the cache is full.
+ *
+ * Paging involves disk I/O, during which other threads run and may
+ * fault themselves.  To keep the frame table and page tables
+ * consistent, all paging activity is serialized by a single lock,
+ * which callers of getFrame() must hold.
+ */
+public class Pager {
+
+  /** Names of the available replacement policies. */
+  public static final String policyNames[] = {
+    "fifo", "clock", "esc", "aging", "wsclock"
+  };
+
+  /** Free frames below which the page-out daemon is woken. */
+  private static final int LowWatermark = 4;
+
+  /** Free frames above which the page-out daemon stops. */
+  private static final int HighWatermark = 8;
+
+  /** Signalled when the page-out daemon is to reclaim frames. */
+  private static final Semaphore reclaim =
+    new Semaphore("pager reclaim", 0);
+
+  /** Serializes all page-in and page-out activity. */
+  private static final Lock lock = new Lock("pager lock");
+
+  /** The swap area, or null if pages cannot be evicted. */
+  private static SwapSpace swap = null;
+
+  /** The replacement policy. */
+  private static ReplacementPolicy policy = new ClockPolicy();
+
+  /** Virtual time at which the policy was last ticked. */
+  private static int lastTick = 0;
+
+  /** Software reference bits, one per frame. */
+  private static boolean referenced[] = new boolean[Machine.NumPhysPages];
+
+  /** Number of times each frame is pinned. */
+  private static int pinned[] = new int[Machine.NumPhysPages];
+
+  /** Address spaces waiting to release each pinned frame, if any. */
+  private static final Map<Integer, ArrayList<AddrSpace>> deferred =
+    new HashMap<Integer, ArrayList<AddrSpace>>();
+
+  /** The machine's memory, as seen by the replacement policy. */
+  private static final ReplacementPolicy.Frames frames =
+    new ReplacementPolicy.Frames() {
+      public int numFrames() {
+	return PhysicalMemoryManager.getPhysicalMemoryManager().numFrames();
+      }
+
+      public boolean isResident(int frame) {
+	return pinned[frame] == 0 && residentEntry(frame) != null;
+      }
+
+      public boolean isReferenced(int frame) {
+	if (referenced[frame])
+	  return true;
+	TranslationEntry entries[] = holderEntries(frame);
+	for (int i = 0; i < entries.length; i++)
+	  if (entries[i].use)
+	    return true;
+	return false;
+      }
+
+      public void clearReferenced(int frame) {
+	referenced[frame] = false;
+	TranslationEntry entries[] = holderEntries(frame);
+	for (int i = 0; i < entries.length; i++)
+	  entries[i].use = false;
+      }
+
+      public boolean isDirty(int frame) {
+	TranslationEntry entries[] = holderEntries(frame);
+	for (int i = 0; i < entries.length; i++)
+	  if (entries[i].dirty)
+	    return true;
+	return false;
+      }
+
+      public int now() {
+	return Machine.stats.totalTicks;
+      }
+    };
+
+  /**
+   * Process command-line arguments, to select the replacement policy
+   * and the size of the swap cache, and set up a swap area covering a
+   * disk, so that pages can be evicted when memory fills up.
+   *
+   * @param args Command-line arguments.
+   * @param disk The disk driver for the disk to be used for swapping,
+   * or null if there is to be no swapping.
+   * @param numSectors The number of sectors on the disk.
+   */
+  public static void init(String[] args, DiskDriver disk, int numSectors) {
+    int cachePages = 0;
+    for (int i=0; i<args.length; i++) {
+      if (args[i].equals("-vm")) {
+	Debug.ASSERT((i<args.length-1), "usage: -vm <policy>");
+	policy = createPolicy(args[++i]);
+	Debug.ASSERT(policy != null, "unknown replacement policy");
+      } else if (args[i].equals("-zc")) {
+	Debug.ASSERT((i<args.length-1), "usage: -zc <pages>");
+	cachePages = Integer.parseInt(args[++i]);
+	Debug.ASSERT(cachePages > 0, "swap cache size must be positive");
+      }
+    }
+    if (disk != null) {
+      swap = new SwapSpace(disk, 0, numSectors);
+      if (cachePages > 0)
+	swap.enableCache(cachePages);
+      Debug.println('a', "Pager: swap area of " + swap.numSlots()
+		    + " pages, " + policy.getName() + " replacement"
+		    + (cachePages > 0 ? ", cache of " + cachePages + " pages"
+		       : ""));
+      startDaemon();
+    }
+  }
+
+  /**
+   * Create a replacement policy.
+   *
+   * @param name The name of the policy, one of policyNames.
+   * @return A new instance of the policy, or null if the name is
+   * not recognized.
+   */
+  public static ReplacementPolicy createPolicy(String name) {
+    if (name.equals("fifo"))
+      return new FifoPolicy();
+    if (name.equals("clock"))
+      return new ClockPolicy();
+    if (name.equals("esc"))
+      return new SecondChancePolicy();
+    if (name.equals("aging"))
+      return new AgingPolicy();
+    if (name.equals("wsclock"))
+      return new WSClockPolicy();
+    return null;
+  }
+
+  /**
+   * Start the page-out daemon, and have the memory manager wake it
+   * when free frames run low.
+   */
+  private static void startDaemon() {
+    Scheduler.readyToRun(new NachosThread("page-out daemon", new Runnable() {
+      public void run() {
+	while (true) {
+	  reclaim.P();
+	  reclaim();
+	}
+      }
+    }));
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    PhysicalMemoryManager.getPhysicalMemoryManager().setWatermarks
+      (LowWatermark, HighWatermark,
+       new PhysicalMemoryManager.WatermarkListener() {
+	 public void lowWatermark(int numFree) {
+	   reclaim.V();
+	 }
+
+	 public void highWatermark(int numFree) {
+	   Debug.println('a', "Pager: " + numFree + " frames free");
+	 }
+       });
+    Interrupt.setLevel(oldLevel);
+  }
+
+  /**
+   * Evict pages until more than HighWatermark frames are free, or no
+   * page can be evicted.  Runs in the page-out daemon.  If it gives up
+   * short of the high watermark (every frame pinned, say), the memory
+   * manager is re-armed, or it would not wake the daemon again until
+   * something else freed enough frames.
+   */
+  private static void reclaim() {
+    PhysicalMemoryManager memory =
+      PhysicalMemoryManager.getPhysicalMemoryManager();
+    lock.acquire();
+    while (memory.numFree() <= HighWatermark) {
+      int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+      TLBManager.sync();
+      tick();
+      int frame = policy.chooseVictim(frames);
+      if (frame == -1) {
+	memory.rearmWatermarks();
+	Interrupt.setLevel(oldLevel);
+	break;
+      }
+      Interrupt.setLevel(oldLevel);
+      evict(frame);
+      oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+      memory.freeFrame(frame);
+      referenced[frame] = false;
+      Interrupt.setLevel(oldLevel);
+      Machine.stats.numReclaimed++;
+    }
+    lock.release();
+  }
+
+  /**
+   * @return The swap area, or null if none has been set up.
+   */
+  static SwapSpace getSwap() {
+    return swap;
+  }
+
+  /** Acquire the pager lock. */
+  static void acquire() {
+    lock.acquire();
+  }
+
+  /** Release the pager lock. */
+  static void release() {
+    lock.release();
+  }
+
+  /**
+   * Get a frame to hold a virtual page, evicting some other page if
+   * memory is full.  The caller must hold the pager lock.
+   *
+   * @param owner The address space that is to own the frame.
+   * @param vpn The virtual page that the frame is to hold.
+   * @return The frame number, or -1 if no frame could be found.
+   */
+  static int getFrame(AddrSpace owner, int vpn) {
+    Debug.ASSERT(lock.isHeldByCurrentThread());
+    PhysicalMemoryManager memory =
+      PhysicalMemoryManager.getPhysicalMemoryManager();
+
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    TLBManager.sync();			// bring the use bits up to date
+    tick();
+    int frame = memory.allocateFrame(owner, vpn);
+    Interrupt.setLevel(oldLevel);
+    if (frame != -1 || swap == null)
+      return frame;
+
+    oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    frame = policy.chooseVictim(frames);
+    Interrupt.setLevel(oldLevel);
+    if (frame == -1)
+      return -1;
+
+    evict(frame);
+    oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    memory.reassignFrame(frame, owner, vpn);
+    referenced[frame] = false;
+    Interrupt.setLevel(oldLevel);
+    return frame;
+  }
+
+  /**
+   * Evict the page in a frame from every address space holding it.
+   * The frame stays allocated.  The caller must hold the pager lock.
+   *
+   * @param frame The frame, which must hold a valid page.
+   */
+  private static void evict(int frame) {
+    PhysicalMemoryManager memory =
+      PhysicalMemoryManager.getPhysicalMemoryManager();
+    List<AddrSpace> victims = memory.getHolders(frame);
+    int victimPage = memory.getVirtualPage(frame);
+    Debug.println('a', "Pager: evicting page " + victimPage
+		  + " from frame " + frame);
+    for (int i = 0; i < victims.size(); i++)
+      victims.get(i).pageOut(victimPage);
+  }
+
+  /**
+   * Pin a frame, so that it will not be evicted until it is unpinned.
+   * Must be called with interrupts disabled.
+   *
+   * @param frame The frame, which must hold a valid page.
+   */
+  static void pin(int frame) {
+    pinned[frame]++;
+  }
+
+  /**
+   * Is a frame pinned?  Must be called with interrupts disabled.
+   *
+   * @param frame The frame.
+   * @return true if it has been pinned more often than unpinned.
+   */
+  static boolean isPinned(int frame) {
+    return pinned[frame] > 0;
+  }
+
+  /**
+   * Undo one pin() of a frame.  Must be called with interrupts disabled.
+   *
+   * @param frame The frame.
+   */
+  static void unpin(int frame) {
+    Debug.ASSERT(pinned[frame] > 0, "Pager.unpin: frame not pinned");
+    if (--pinned[frame] > 0)
+      return;
+    ArrayList<AddrSpace> spaces = deferred.remove(Integer.valueOf(frame));
+    if (spaces == null)
+      return;
+    PhysicalMemoryManager memory =
+      PhysicalMemoryManager.getPhysicalMemoryManager();
+    for (int i = 0; i < spaces.size(); i++)
+      memory.releaseFrame(frame, spaces.get(i));
+    Debug.println('a', "Pager: frame " + frame + " released after unpin");
+  }
+
+  /**
+   * Let go of a frame on behalf of an address space whose page table
+   * no longer maps it, as PhysicalMemoryManager.releaseFrame() does,
+   * except that if the frame is pinned, the release is put off until
+   * it is unpinned.  Must be called with interrupts disabled.
+   *
+   * @param frame The frame.
+   * @param space The address space.
+   */
+  static void releaseFrame(int frame, AddrSpace space) {
+    if (pinned[frame] == 0) {
+      PhysicalMemoryManager.getPhysicalMemoryManager()
+	.releaseFrame(frame, space);
+      return;
+    }
+    Integer key = Integer.valueOf(frame);
+    ArrayList<AddrSpace> spaces = deferred.get(key);
+    if (spaces == null) {
+      spaces = new ArrayList<AddrSpace>();
+      deferred.put(key, spaces);
+    }
+    spaces.add(space);
+  }
+
+  /**
+   * Tell the replacement policy that a page has been brought into
+   * a frame.  Called by AddrSpace once the page is valid.
+   *
+   * @param frame The frame.
+   */
+  static void loaded(int frame) {
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    referenced[frame] = false;
+    policy.loaded(frames, frame);
+    Interrupt.setLevel(oldLevel);
+  }
+
+  /**
+   * Let the replacement policy sample reference bits, if it is
+   * TickInterval or more ticks since it last did.  Must be called with
+   * interrupts disabled.
+   */
+  static void tick() {
+    int now = Machine.stats.totalTicks;
+    if (now - lastTick >= ReplacementPolicy.TickInterval) {
+      lastTick = now;
+      policy.tick(frames);
+    }
+  }
+
+  /**
+   * Harvest the hardware reference bit of a resident page into its
+   * software copy, so that the bit can be cleared (by the page trace
+   * recorder, to see later references) without the replacement policy
+   * losing track of the reference.  Must be called with interrupts
+   * disabled.
+   *
+   * @param frame A frame.
+   * @return The page table entry of the page in the frame, whose use
+   * bit was set, or null if the frame holds no page or the page has not
+   * been referenced since the last harvest.
+   */
+  static TranslationEntry harvestReference(int frame) {
+    TranslationEntry entry = residentEntry(frame);
+    if (entry == null || !entry.use)
+      return null;
+    entry.use = false;
+    referenced[frame] = true;
+    return entry;
+  }
+
+  /**
+   * Get the page table entry of the page resident in a frame.
+   *
+   * @param frame The frame.
+   * @return The entry, or null if the frame does not currently hold
+   * a valid page (it is free, or is still being filled).  If the frame
+   * is shared, this is the entry of its owner.
+   */
+  static TranslationEntry residentEntry(int frame) {
+    PhysicalMemoryManager memory =
+      PhysicalMemoryManager.getPhysicalMemoryManager();
+    AddrSpace owner = memory.getOwner(frame);
+    if (owner == null)
+      return null;
+    TranslationEntry entry = owner.getEntry(memory.getVirtualPage(frame));
+    if (entry == null || !entry.valid || entry.physicalPage != frame)
+      return null;
+    return entry;
+  }
+
+  /**
+   * Get the page table entries, in all the address spaces holding a
+   * frame, of the page resident in it.
+   *
+   * @param frame The frame, which must hold a valid page.
+   * @return The entries; just the owner's, if the frame is not shared.
+   */
+  private static TranslationEntry[] holderEntries(int frame) {
+    PhysicalMemoryManager memory =
+      PhysicalMemoryManager.getPhysicalMemoryManager();
+    if (memory.numHolders(frame) <= 1)
+      return new TranslationEntry[] { residentEntry(frame) };
+    List<AddrSpace> holders = memory.getHolders(frame);
+    int vpn = memory.getVirtualPage(frame);
+    TranslationEntry entries[] = new TranslationEntry[holders.size()];
+    for (int i = 0; i < entries.length; i++)
+      entries[i] = holders.get(i).getEntry(vpn);
+    return entries;
+  }
+}
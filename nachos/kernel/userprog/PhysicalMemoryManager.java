@@ -1,87 +1,404 @@
+// PhysicalMemoryManager.java
+//	Allocation of the page frames of physical memory to user
+//	address spaces.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
 package nachos.kernel.userprog;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
-import nachos.kernel.filesys.BitMap;
+import nachos.Debug;
 import nachos.machine.Machine;
 
-
 /**
- * This is a physical memory manager it keeps track of what memory in the machine 
- * has been allocated by a user program. It does this using a Bitmap where one bit is related
- * to a page of data in memory. This memory manager uses a simple paging schema.
- * 
- * This class uses a the singleton design pattern
- * @author david
+ * The physical memory manager keeps track of which page frames of the
+ * machine's memory are free, and which address space (and which virtual
+ * page within it) each allocated frame belongs to.
+ *
+ * Free frames are kept on a stack, so that allocating or freeing a
+ * frame takes constant time, no matter how large memory is.  A frame
+ * table records the owner and virtual page of each allocated frame,
+ * and the number of frames held by each address space is kept up to
+ * date, so that neither has to be found by searching.
+ *
+ * A frame may be shared by several address spaces (after a fork, until
+ * one of them writes to the page; see AddrSpace.fork()).  One of them
+ * is recorded as the owner, and the others as sharers; the frame is
+ * freed only when the last of them lets go of it.
+ *
+ * A WatermarkListener may be registered to be told when the number of
+ * free frames falls below a low watermark, and again when it climbs back
+ * above a high watermark.  The Pager uses this to wake its page-out
+ * daemon (see Pager.startDaemon()).
+ *
+ * The memory manager does no synchronization of its own; callers
+ * must disable interrupts around calls that change its state.
  *
+ * There is one memory manager for the machine's memory, obtained
+ * with getPhysicalMemoryManager(), but others can be created (by
+ * test code, for instance) to manage an arbitrary number of frames.
  */
 public class PhysicalMemoryManager {
- //We probably won't need this but II'll keep it here just in case
-    ArrayList AddrSpaceList;
-    
-    //In our BitMap a bit will relate to a page in memory
-    BitMap MemoryMap;
-    
-    // This holds the on instance of the physical memory manager
-    private static PhysicalMemoryManager singleton;
-    
-   private PhysicalMemoryManager(){
-       //We set the Bitmap to hold as many bits as there are pages are bits start off clear
-       //to signify that no memory has been allocated.
-	MemoryMap = new BitMap(Machine.NumPhysPages);
-	
-	
+
+  /**
+   * Interface implemented by objects that want to hear when free
+   * memory becomes scarce, or plentiful again.
+   */
+  public interface WatermarkListener {
+
+    /**
+     * Called when the number of free frames drops below the low
+     * watermark.
+     *
+     * @param numFree The number of free frames.
+     */
+    public void lowWatermark(int numFree);
+
+    /**
+     * Called when the number of free frames rises above the high
+     * watermark, after having dropped below the low watermark.
+     *
+     * @param numFree The number of free frames.
+     */
+    public void highWatermark(int numFree);
+  }
+
+  /** The memory manager for the machine's physical memory. */
+  private static PhysicalMemoryManager singleton;
+
+  /** Total number of frames managed. */
+  private final int numFrames;
+
+  /** Stack of free frame numbers; freeStack[0..numFree-1] are free. */
+  private final int freeStack[];
+
+  /** Number of free frames. */
+  private int numFree;
+
+  /** Is each frame allocated? */
+  private final boolean allocated[];
+
+  /** Address space owning each allocated frame. */
+  private final AddrSpace owners[];
+
+  /** Virtual page mapped to each allocated frame. */
+  private final int virtualPages[];
+
+  /** Address spaces other than the owner sharing each frame, if any. */
+  private final Map<Integer, ArrayList<AddrSpace>> sharers =
+    new HashMap<Integer, ArrayList<AddrSpace>>();
+
+  /** Number of frames held by each address space. */
+  private final Map<AddrSpace, int[]> ownerCounts =
+    new HashMap<AddrSpace, int[]>();
+
+  /** The low and high watermarks, in free frames. */
+  private int lowWatermark = 0, highWatermark = 0;
+
+  /** The watermark listener, or null if none. */
+  private WatermarkListener listener = null;
+
+  /** Has the low watermark been crossed, without the high one since? */
+  private boolean belowLow = false;
+
+  /**
+   * Create a memory manager for a given number of frames, all of
+   * them initially free.
+   *
+   * @param numFrames The number of frames to manage.
+   */
+  public PhysicalMemoryManager(int numFrames) {
+    this.numFrames = numFrames;
+    freeStack = new int[numFrames];
+    allocated = new boolean[numFrames];
+    owners = new AddrSpace[numFrames];
+    virtualPages = new int[numFrames];
+
+    // Push the frames in reverse, so that low frames are handed out first.
+    for (int i = 0; i < numFrames; i++)
+      freeStack[i] = numFrames - 1 - i;
+    numFree = numFrames;
+  }
+
+  /**
+   * Get the memory manager for the machine's physical memory.
+   *
+   * @return The memory manager.
+   */
+  public static PhysicalMemoryManager getPhysicalMemoryManager() {
+    if (singleton == null)
+      singleton = new PhysicalMemoryManager(Machine.NumPhysPages);
+    return singleton;
+  }
+
+  /**
+   * Allocate one frame.
+   *
+   * @param owner The address space that is to own the frame.
+   * @param vpn The virtual page that the frame is to hold.
+   * @return The frame number, or -1 if there are no free frames.
+   */
+  public int allocateFrame(AddrSpace owner, int vpn) {
+    if (numFree == 0)
+      return -1;
+    int frame = freeStack[--numFree];
+    allocated[frame] = true;
+    owners[frame] = owner;
+    virtualPages[frame] = vpn;
+    countFrames(owner, 1);
+    checkWatermarks();
+    return frame;
+  }
+
+  /**
+   * Allocate frames for the virtual pages 0 through numPages-1
+   * of an address space.  Either all of the frames are allocated,
+   * or none are.
+   *
+   * @param owner The address space that is to own the frames.
+   * @param numPages The number of frames needed.
+   * @return The frame numbers, indexed by virtual page, or null if
+   * there are not enough free frames.
+   */
+  public int[] allocateMemory(AddrSpace owner, int numPages) {
+    if (numPages > numFree)
+      return null;
+    int frames[] = new int[numPages];
+    for (int i = 0; i < numPages; i++)
+      frames[i] = allocateFrame(owner, i);
+    return frames;
+  }
+
+  /**
+   * Hand an allocated frame over to a different virtual page, possibly
+   * of a different address space, without freeing it in between.
+   * Used when a page is evicted to make room for another.  If the
+   * frame was shared, the new owner has it to itself.
+   *
+   * @param frame The frame.
+   * @param owner The address space that is to own the frame.
+   * @param vpn The virtual page that the frame is to hold.
+   */
+  public void reassignFrame(int frame, AddrSpace owner, int vpn) {
+    Debug.ASSERT(frame >= 0 && frame < numFrames && allocated[frame],
+		 "PhysicalMemoryManager: reassigning a free frame");
+    countFrames(owners[frame], -1);
+    sharers.remove(Integer.valueOf(frame));
+    owners[frame] = owner;
+    virtualPages[frame] = vpn;
+    countFrames(owner, 1);
+  }
+
+  /**
+   * Let another address space share an allocated frame.
+   *
+   * @param frame The frame.
+   * @param sharer The address space that is to share it.
+   */
+  public void shareFrame(int frame, AddrSpace sharer) {
+    Debug.ASSERT(frame >= 0 && frame < numFrames && allocated[frame],
+		 "PhysicalMemoryManager: sharing a free frame");
+    Integer key = Integer.valueOf(frame);
+    ArrayList<AddrSpace> list = sharers.get(key);
+    if (list == null) {
+      list = new ArrayList<AddrSpace>();
+      sharers.put(key, list);
+    }
+    list.add(sharer);
+  }
+
+  /**
+   * Get the number of address spaces holding a frame.
+   *
+   * @param frame The frame.
+   * @return 0 if the frame is free, 1 if it has just an owner, and
+   * more if it is shared.
+   */
+  public int numHolders(int frame) {
+    if (!allocated[frame])
+      return 0;
+    ArrayList<AddrSpace> list = sharers.get(Integer.valueOf(frame));
+    return list == null ? 1 : 1 + list.size();
+  }
+
+  /**
+   * Get all the address spaces holding a frame.
+   *
+   * @param frame The frame.
+   * @return The owner, followed by any sharers; empty if the frame
+   * is free.
+   */
+  public List<AddrSpace> getHolders(int frame) {
+    List<AddrSpace> holders = new ArrayList<AddrSpace>();
+    if (allocated[frame]) {
+      holders.add(owners[frame]);
+      ArrayList<AddrSpace> list = sharers.get(Integer.valueOf(frame));
+      if (list != null)
+	holders.addAll(list);
+    }
+    return holders;
+  }
+
+  /**
+   * Let go of a frame held by an address space.  If others still
+   * share the frame, it stays allocated (and if the address space was
+   * the owner, one of the sharers becomes the owner); otherwise it is
+   * returned to the free pool.
+   *
+   * @param frame The frame.
+   * @param holder The address space letting go of it.
+   */
+  public void releaseFrame(int frame, AddrSpace holder) {
+    Integer key = Integer.valueOf(frame);
+    ArrayList<AddrSpace> list = sharers.get(key);
+    if (list == null) {
+      freeFrame(frame);
+      return;
+    }
+    if (owners[frame] == holder) {
+      countFrames(holder, -1);
+      owners[frame] = list.remove(list.size() - 1);
+      countFrames(owners[frame], 1);
+    } else {
+      list.remove(holder);
+    }
+    if (list.isEmpty())
+      sharers.remove(key);
+  }
+
+  /**
+   * Return a frame to the free pool.
+   *
+   * @param frame The frame to be freed.
+   */
+  public void freeFrame(int frame) {
+    Debug.ASSERT(frame >= 0 && frame < numFrames && allocated[frame],
+		 "PhysicalMemoryManager: freeing a free frame");
+    sharers.remove(Integer.valueOf(frame));
+    countFrames(owners[frame], -1);
+    allocated[frame] = false;
+    owners[frame] = null;
+    freeStack[numFree++] = frame;
+    checkWatermarks();
+  }
+
+  /**
+   * Return a set of frames to the free pool.
+   *
+   * @param frames The frames to be freed.
+   */
+  public void freeMemory(int frames[]) {
+    for (int i = 0; i < frames.length; i++)
+      freeFrame(frames[i]);
+  }
+
+  /**
+   * @return The total number of frames managed.
+   */
+  public int numFrames() {
+    return numFrames;
+  }
+
+  /**
+   * @return The number of frames that are currently free.
+   */
+  public int numFree() {
+    return numFree;
+  }
+
+  /**
+   * Get the address space that owns a frame.
+   *
+   * @param frame The frame number.
+   * @return The owning address space, or null if the frame is free.
+   */
+  public AddrSpace getOwner(int frame) {
+    return owners[frame];
+  }
+
+  /**
+   * Get the virtual page held by a frame.
+   *
+   * @param frame The frame number.
+   * @return The virtual page number, or -1 if the frame is free.
+   */
+  public int getVirtualPage(int frame) {
+    return allocated[frame] ? virtualPages[frame] : -1;
+  }
+
+  /**
+   * Get the number of frames held by an address space.
+   *
+   * @param owner The address space.
+   * @return The number of frames it owns.
+   */
+  public int framesOwnedBy(AddrSpace owner) {
+    int count[] = ownerCounts.get(owner);
+    return count == null ? 0 : count[0];
+  }
+
+  /**
+   * Register a listener to be told when free memory crosses the
+   * watermarks.
+   *
+   * @param low The listener's lowWatermark() method is called when
+   * the number of free frames drops below this.
+   * @param high The listener's highWatermark() method is then called
+   * when the number of free frames rises above this.
+   * @param l The listener, or null to remove the current one.
+   */
+  public void setWatermarks(int low, int high, WatermarkListener l) {
+    Debug.ASSERT(low <= high, "PhysicalMemoryManager: low > high watermark");
+    lowWatermark = low;
+    highWatermark = high;
+    listener = l;
+    belowLow = false;
+    checkWatermarks();
+  }
+
+  /**
+   * Forget that the number of free frames has dropped below the low
+   * watermark, so that the listener is told again the next time a
+   * frame is allocated while it is below.  For a listener that has
+   * given up trying to free frames before reaching the high watermark.
+   */
+  public void rearmWatermarks() {
+    belowLow = false;
+  }
+
+  /**
+   * Adjust the number of frames held by an address space.
+   */
+  private void countFrames(AddrSpace owner, int delta) {
+    int count[] = ownerCounts.get(owner);
+    if (count == null) {
+      count = new int[1];
+      ownerCounts.put(owner, count);
+    }
+    count[0] += delta;
+    if (count[0] == 0)
+      ownerCounts.remove(owner);
+  }
+
+  /**
+   * Notify the listener, if the number of free frames has just
+   * crossed one of the watermarks.
+   */
+  private void checkWatermarks() {
+    if (listener == null)
+      return;
+    if (!belowLow && numFree < lowWatermark) {
+      belowLow = true;
+      listener.lowWatermark(numFree);
+    } else if (belowLow && numFree > highWatermark) {
+      belowLow = false;
+      listener.highWatermark(numFree);
     }
-   
-   /**
-    * This gets the refrecne to the physical memory manager
- * @return 
-    */
-   public static PhysicalMemoryManager getPhysicalMemoryManager(){
-       if(singleton == null){
-	 singleton = new PhysicalMemoryManager();
-       }
-       
-       return singleton;
-       
-   }
-   
-   /**
-    * This method marks bits in the BitMap to represent memory that will be allocated by a user program
-    * this method should be called before the memory is allocated and it should be locked by a semaphore.
-    * 
-    * @param numPages - the amount of pages needed by the user program
-    * @return an array of memory  locations that will be allocated
-    */
-   public int[] allocateMemory(int numPages){
-       int [] memoryLocations = new int [numPages];
-       if(numPages >  MemoryMap.numClear()){
-         //we return null to signify that there is not enough space for this program
-	   return null;
-       }
-       else{
-	   //we enough find enough free locations in memory for the amount of pages that we need
-	   for(int i = 0; i < numPages; i++){
-	       memoryLocations[i] = MemoryMap.find();	       	       
-	   }
-       }
-    //we return the locations of free memory
-    return memoryLocations;
-       
-   }
-   /**
-    * This method clears the bits that have been freed in memory it should be called 
-    * after the memory has been freed and it should be locked by a semaphore.
-    * @param memoryLocations - an array of memory locations that have been freed, whose bits need to be cleared
-    */
-   public void freeMemory(int [] memoryLocations){
-       //in this class we clear all the bits that are associated with the memory locations that are free
-       for(int i = 0; i < memoryLocations.length; i++){
-	   MemoryMap.clear(memoryLocations[i]);
-       }
-       
-       
-   }
-    
-    
+  }
 }
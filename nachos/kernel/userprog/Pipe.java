@@ -0,0 +1,361 @@
+// Pipe.java
+//	A one-way byte stream between user processes, with a kernel
+//	buffer in between.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+import nachos.Debug;
+import nachos.kernel.filesys.OpenFile;
+import nachos.kernel.threads.Condition;
+import nachos.kernel.threads.Lock;
+import nachos.machine.Machine;
+
+/**
+ * A pipe, created by SC_Pipe, carries bytes from its write end to its
+ * read end, which appear in the FileTable as OpenFiles, so they are
+ * closed, and inherited by forked address spaces, as files are.
+ *
+ * Bytes written are kept in a fixed-size ring buffer until read.  A
+ * writer blocks while the buffer is full, and a reader while it is
+ * empty; a read returns whatever is there, up to the amount asked
+ * for, rather than waiting for the whole amount, as from the console.
+ * When the buffer is empty and a reader is already blocked, a writer
+ * does not use the buffer at all, but copies straight into the
+ * reader's destination: for a user program, into its pages (see
+ * read(AddrSpace, int, int)).  Since SC_Write passes the writer's pages
+ * themselves to the pipe (see AddrSpace.writeFile()), the bytes then
+ * go from the writer's frame to the reader's with a single copy.
+ *
+ * A read after the write end has been closed returns what is left in
+ * the buffer, and then 0; a write after the read end has been closed
+ * fails.  The size of the buffer is set with the -ps <bytes>
+ * command-line option.
+ */
+public class Pipe {
+
+  /** Size of the buffer of a pipe, unless set on the command line. */
+  public static final int DefaultSize = 512;
+
+  /** Size of the buffer of each new pipe. */
+  private static int defaultSize = DefaultSize;
+
+  /** The buffer; count bytes from index head (wrapping around) are valid. */
+  private final byte ring[];
+
+  /** Index in the ring of the oldest unread byte. */
+  private int head = 0;
+
+  /** Number of unread bytes in the ring. */
+  private int count = 0;
+
+  /** Are the ends still open? */
+  private boolean readOpen = true, writeOpen = true;
+
+  /** Serializes access to the pipe. */
+  private final Lock lock = new Lock("pipe lock");
+
+  /** Signalled when the ring has room, or the read end is closed. */
+  private final Condition canWrite = new Condition("pipe not full", lock);
+
+  /** Signalled when a blocked reader no longer waits for bytes. */
+  private final Condition canRead = new Condition("pipe reader", lock);
+
+  /** Signalled when a blocked reader has been given bytes. */
+  private final Condition delivered =
+    new Condition("pipe delivered", lock);
+
+  /** The reader blocked waiting for bytes, or null if none is. */
+  private Request waiting = null;
+
+  /** Number of bytes written, and of those copied straight to a reader. */
+  private int numBytes = 0, numDirect = 0;
+
+  /** Time at which the pipe was created. */
+  private final int startTicks = Machine.stats.totalTicks;
+
+  /** The read end of the pipe. */
+  public final OpenFile readEnd = new ReadEnd();
+
+  /** The write end of the pipe. */
+  public final OpenFile writeEnd = new WriteEnd();
+
+  /**
+   * Where a read is to put the bytes it gets: into user memory, or a
+   * kernel buffer.
+   */
+  private static class Request {
+    final AddrSpace space;
+    final int vaddr;
+    final byte buffer[];
+    final int index;
+    int length;
+
+    /** Number of bytes delivered so far. */
+    int done = 0;
+
+    /** Has a writer delivered to the request while it was waiting? */
+    boolean served = false;
+
+    Request(AddrSpace space, int vaddr, byte buffer[], int index,
+	    int length) {
+      this.space = space;
+      this.vaddr = vaddr;
+      this.buffer = buffer;
+      this.index = index;
+      this.length = length;
+    }
+  }
+
+  /**
+   * Process command-line arguments, to set the size of the buffer of
+   * each pipe.
+   *
+   * @param args Command-line arguments.
+   */
+  public static void init(String[] args) {
+    for (int i=0; i<args.length; i++) {
+      if (args[i].equals("-ps")) {
+	Debug.ASSERT((i<args.length-1), "usage: -ps <bytes>");
+	defaultSize = Integer.parseInt(args[++i]);
+	Debug.ASSERT(defaultSize > 0, "pipe size must be positive");
+      }
+    }
+  }
+
+  /**
+   * Create a pipe with a buffer of the size set on the command line.
+   */
+  public Pipe() {
+    this(defaultSize);
+  }
+
+  /**
+   * Create a pipe.
+   *
+   * @param size The size of the buffer, in bytes.
+   */
+  public Pipe(int size) {
+    ring = new byte[size];
+  }
+
+  /**
+   * Read from the pipe into user memory.
+   *
+   * @param space The address space of the reader.
+   * @param vaddr The virtual address at which to put the bytes.
+   * @param length The largest number of bytes to read.
+   * @return The number of bytes read, which is 0 only if the write end
+   * has been closed and the buffer is empty, or length is not positive.
+   */
+  public int read(AddrSpace space, int vaddr, int length) {
+    return read(new Request(space, vaddr, null, 0, length));
+  }
+
+  /**
+   * Read from the pipe into a kernel buffer.
+   *
+   * @param into The buffer.
+   * @param index Where in the buffer to put the first byte.
+   * @param length The largest number of bytes to read.
+   * @return The number of bytes read, as for read(AddrSpace, int, int).
+   */
+  public int read(byte into[], int index, int length) {
+    return read(new Request(null, 0, into, index, length));
+  }
+
+  /**
+   * Fill a read request: from the ring if it holds anything, or else
+   * by waiting for a writer to deliver to it.  Only one reader waits
+   * for a writer at a time; others wait their turn.
+   */
+  private int read(Request r) {
+    if (r.length <= 0)
+      return 0;
+    lock.acquire();
+    while (count == 0 && writeOpen && waiting != null)
+      canRead.await();
+    if (count == 0 && writeOpen) {
+      waiting = r;
+      while (!r.served && writeOpen)
+	delivered.await();
+      if (waiting == r)
+	waiting = null;
+      canRead.signal();
+    }
+    while (count > 0 && r.done < r.length) {
+      int n = Math.min(Math.min(count, ring.length - head),
+		       r.length - r.done);
+      int k = deliver(r, ring, head, n);
+      head = (head + k) % ring.length;
+      count -= k;
+      if (k < n)
+	break;
+    }
+    canWrite.broadcast();
+    lock.release();
+    return r.done;
+  }
+
+  /**
+   * Write to the pipe, blocking until all the bytes have been taken,
+   * into the ring or by a reader.
+   *
+   * @param from The bytes: a kernel buffer, or main memory when the
+   * caller has pinned the frame holding them.
+   * @param index The index in from of the first byte.
+   * @param length The number of bytes.
+   * @return The number of bytes written, which is less than length only
+   * if the read end is closed meanwhile, or -1 if it was closed before
+   * anything was written.
+   */
+  public int write(byte from[], int index, int length) {
+    lock.acquire();
+    int done = 0;
+    while (done < length && readOpen) {
+      if (waiting != null) {
+	// The ring is empty, or the reader would not be waiting.
+	Request r = waiting;
+	waiting = null;
+	int k = deliver(r, from, index + done,
+			Math.min(length - done, r.length - r.done));
+	r.served = true;
+	done += k;
+	numDirect += k;
+	delivered.signal();
+      } else if (count < ring.length) {
+	int tail = (head + count) % ring.length;
+	int n = Math.min(Math.min(ring.length - count, ring.length - tail),
+			 length - done);
+	System.arraycopy(from, index + done, ring, tail, n);
+	count += n;
+	done += n;
+      } else {
+	canWrite.await();
+      }
+    }
+    numBytes += done;
+    boolean broken = done == 0 && !readOpen;
+    lock.release();
+    return broken ? -1 : done;
+  }
+
+  /**
+   * Copy bytes to where a read request wants them.  If the request is
+   * for user memory and an address outside the address space, or a
+   * read-only page, is reached, the request is cut short there.
+   *
+   * @return The number of bytes copied.
+   */
+  private int deliver(Request r, byte from[], int index, int n) {
+    int k;
+    if (r.space != null) {
+      k = r.space.copyOut(r.vaddr + r.done, from, index, n);
+      if (k < n)
+	r.length = r.done + k;
+    } else {
+      System.arraycopy(from, index, r.buffer, r.index + r.done, n);
+      k = n;
+    }
+    r.done += k;
+    return k;
+  }
+
+  /**
+   * Close one end of the pipe, waking up anyone waiting for the other.
+   * Once both are closed, the throughput of the pipe is printed.
+   *
+   * @param reading true to close the read end, false the write end.
+   */
+  private void close(boolean reading) {
+    lock.acquire();
+    if (reading)
+      readOpen = false;
+    else
+      writeOpen = false;
+    canWrite.broadcast();
+    canRead.broadcast();
+    delivered.broadcast();
+    boolean last = !readOpen && !writeOpen;
+    lock.release();
+    if (last && numBytes > 0) {
+      int ticks = Math.max(1, Machine.stats.totalTicks - startTicks);
+      Debug.println('+', String.format
+		    ("Pipe: %d bytes (%d passed directly), %d-byte buffer, "
+		     + "%d ticks, %.3f bytes/tick", numBytes, numDirect,
+		     ring.length, ticks, (double)numBytes / ticks));
+    }
+  }
+
+  /**
+   * An end of a pipe, as an OpenFile.  A pipe has no positions, so
+   * seek() does nothing, and readAt() and writeAt() fail, as do
+   * whichever of read() and write() is for the other end.
+   */
+  abstract class End implements OpenFile {
+
+    /**
+     * Read from the pipe into user memory, if this is the read end.
+     *
+     * @return The number of bytes read, as for Pipe.read(), or -1 if
+     * this is the write end.
+     */
+    int read(AddrSpace space, int vaddr, int length) {
+      return -1;
+    }
+
+    public void seek(long position) { }
+
+    public int readAt(byte into[], int index, int numBytes, long position) {
+      return -1;
+    }
+
+    public int writeAt(byte from[], int index, int numBytes, long position) {
+      return -1;
+    }
+
+    public int read(byte into[], int index, int numBytes) {
+      return -1;
+    }
+
+    public int write(byte from[], int index, int numBytes) {
+      return -1;
+    }
+
+    /** @return The number of bytes waiting to be read. */
+    public long length() {
+      return count;
+    }
+  }
+
+  /** The read end of a pipe. */
+  class ReadEnd extends End {
+    int read(AddrSpace space, int vaddr, int length) {
+      return Pipe.this.read(space, vaddr, length);
+    }
+
+    public int read(byte into[], int index, int numBytes) {
+      return Pipe.this.read(into, index, numBytes);
+    }
+
+    public int close() {
+      Pipe.this.close(true);
+      return 1;
+    }
+  }
+
+  /** The write end of a pipe. */
+  class WriteEnd extends End {
+    public int write(byte from[], int index, int numBytes) {
+      return Pipe.this.write(from, index, numBytes);
+    }
+
+    public int close() {
+      Pipe.this.close(false);
+      return 1;
+    }
+  }
+}
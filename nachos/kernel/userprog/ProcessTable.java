@@ -0,0 +1,190 @@
+// ProcessTable.java
+//	Table of the user processes, by SpaceId.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+import java.util.ArrayList;
+
+import nachos.Debug;
+import nachos.machine.Interrupt;
+import nachos.kernel.threads.Semaphore;
+
+/**
+ * The process table gives each address space running a user program a
+ * SpaceId, the number by which Exec() and Fork() identify a new process
+ * to its parent, and Join() waits for it.  SpaceIds are 1 to
+ * MaxProcesses, indexing an array of slots, so looking a process up
+ * takes constant time; free slots are kept on a stack, so allocating
+ * and freeing one does too.
+ *
+ * A process that exits keeps its slot, holding its exit status, until
+ * its parent joins it; only the parent may do so.  If the parent exits
+ * first, or there is no parent (the first program), the slot is freed
+ * as soon as the process exits, so slots are never left behind by
+ * processes that nobody will join.  The frames and swap of a process
+ * are freed when it exits, whether or not it has been joined.
+ */
+public class ProcessTable {
+
+  /** Maximum number of processes at once. */
+  public static final int MaxProcesses = 64;
+
+  /** What the table knows about a process. */
+  private static class Process {
+
+    /** The SpaceId of the process. */
+    final int id;
+
+    /** The parent, or null if it has none or has exited. */
+    Process parent;
+
+    /** The children that have not yet been joined. */
+    final ArrayList<Process> children = new ArrayList<Process>();
+
+    /** Has the process exited? */
+    boolean exited = false;
+
+    /** Is the parent joining, or has it joined, the process? */
+    boolean joined = false;
+
+    /** The exit status, once the process has exited. */
+    int status;
+
+    /** Signalled when the process exits. */
+    final Semaphore done;
+
+    Process(int id, Process parent) {
+      this.id = id;
+      this.parent = parent;
+      done = new Semaphore("process " + id + " done", 0);
+    }
+  }
+
+  /** The processes, indexed by SpaceId - 1. */
+  private static final Process slots[] = new Process[MaxProcesses];
+
+  /** Indices of the free slots; freeSlots[0..numFree-1] are valid. */
+  private static final int freeSlots[] = new int[MaxProcesses];
+
+  /** Number of free slots. */
+  private static int numFree;
+
+  static {
+    // Hand out low SpaceIds first.
+    for (numFree = 0; numFree < MaxProcesses; numFree++)
+      freeSlots[numFree] = MaxProcesses - 1 - numFree;
+  }
+
+  /**
+   * Enter a new process in the table, and give its address space the
+   * SpaceId.
+   *
+   * @param space The address space of the new process.
+   * @param parent The address space of the parent, or null if the
+   * process has none.
+   * @return The SpaceId, or -1 if the table is full.
+   */
+  public static int add(AddrSpace space, AddrSpace parent) {
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    int id = -1;
+    if (numFree > 0) {
+      int slot = freeSlots[--numFree];
+      Process p = parent == null ? null : lookup(parent.getSpaceId());
+      id = slot + 1;
+      slots[slot] = new Process(id, p);
+      if (p != null)
+	p.children.add(slots[slot]);
+      space.setSpaceId(id);
+    }
+    Interrupt.setLevel(oldLevel);
+    if (id == -1)
+      Debug.println('+', "ProcessTable: too many processes");
+    return id;
+  }
+
+  /**
+   * Record that a process has exited, and wake up its parent if it is
+   * waiting in join().  Its children no longer have a parent, and the
+   * slots of those that have already exited are freed, as is its own
+   * if it has no parent.
+   *
+   * @param space The address space of the process.
+   * @param status The exit status.
+   */
+  public static void exit(AddrSpace space, int status) {
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    Process p = lookup(space.getSpaceId());
+    if (p != null) {
+      p.exited = true;
+      p.status = status;
+      for (int i = 0; i < p.children.size(); i++) {
+	Process child = p.children.get(i);
+	child.parent = null;
+	if (child.exited)
+	  free(child);
+      }
+      p.children.clear();
+      if (p.parent == null)
+	free(p);
+      else
+	p.done.V();
+    }
+    Interrupt.setLevel(oldLevel);
+  }
+
+  /**
+   * Wait for a child process to exit, free its slot, and return its
+   * exit status.
+   *
+   * @param parent The address space of the caller.
+   * @param id The SpaceId of the child.
+   * @return The exit status, or -1 if id is not that of a child of
+   * the caller that has not yet been joined.
+   */
+  public static int join(AddrSpace parent, int id) {
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    Process p = lookup(id);
+    boolean ok = p != null && p.parent != null && !p.joined
+      && p.parent.id == parent.getSpaceId();
+    if (ok)
+      p.joined = true;
+    Interrupt.setLevel(oldLevel);
+    if (!ok)
+      return -1;
+
+    p.done.P();				// until the child exits
+
+    oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    p.parent.children.remove(p);
+    free(p);
+    Interrupt.setLevel(oldLevel);
+    return p.status;
+  }
+
+  /**
+   * Find a process by its SpaceId.
+   *
+   * @param id The SpaceId.
+   * @return The process, or null if there is none.
+   */
+  private static Process lookup(int id) {
+    if (id < 1 || id > MaxProcesses)
+      return null;
+    return slots[id - 1];
+  }
+
+  /**
+   * Put the slot of a process back on the free stack.  Must be called
+   * with interrupts disabled.
+   *
+   * @param p The process.
+   */
+  private static void free(Process p) {
+    slots[p.id - 1] = null;
+    freeSlots[numFree++] = p.id - 1;
+  }
+}
@@ -0,0 +1,316 @@
+// Profiler.java
+//	Sampling PC profiler for user programs.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import nachos.Debug;
+import nachos.machine.Interrupt;
+import nachos.machine.Machine;
+import nachos.machine.NachosThread;
+import nachos.machine.Timer;
+import nachos.kernel.devices.InterruptHandler;
+import nachos.kernel.threads.Scheduler;
+import nachos.util.CoffInput;
+
+/**
+ * This class implements a sampling profiler for user programs.
+ * When profiling is enabled (with the -prof command-line option),
+ * a timer interrupts the CPU every Timer.DefaultInterval ticks (on
+ * average), and the user program counter of the thread that was
+ * interrupted is recorded in a histogram kept for its address space.
+ *
+ * When the program exits, the histogram is symbolized using the
+ * symbol table of the COFF file from which the NOFF executable was
+ * produced (the file with the same name as the executable, plus the
+ * suffix ".coff", if it exists).  A flat profile is printed, and
+ * written again, in the "folded" format read by flame graph tools, to
+ * the file with the name of the executable plus the suffix
+ * ".<n>.folded", where n is a sequence number that distinguishes
+ * profiles of the same executable.
+ *
+ * Only the program counter is sampled, not the user call chain: the
+ * MIPS code has no unwind information, and where each function saves
+ * its return address depends on its prologue.  So each line of the
+ * folded file is just "executable;thread;symbol count", and the flame
+ * graph drawn from it is flat, one level of functions under each
+ * thread.  It shows which functions the time goes to, not who
+ * called them.
+ *
+ * All the methods of this class are called either from an interrupt
+ * handler or with interrupts disabled, so no further synchronization
+ * is needed.
+ */
+public class Profiler {
+
+  /** Is profiling enabled? */
+  private static boolean enabled = false;
+
+  /** Timer that generates the sampling interrupts, or null if none. */
+  private static Timer timer = null;
+
+  /** Profiles of address spaces currently being sampled. */
+  private static Map<AddrSpace, Profile> profiles =
+      new HashMap<AddrSpace, Profile>();
+
+  /** Sequence number used to name the next profile. */
+  private static int nextProfile = 0;
+
+  /**
+   * Process command-line arguments, to see whether profiling has
+   * been requested.
+   *
+   * @param args Command-line arguments.
+   */
+  public static void init(String[] args) {
+    for (int i=0; i<args.length; i++) {
+      if (args[i].equals("-prof"))
+	enabled = true;
+    }
+  }
+
+  /**
+   * Begin profiling a user program that has just been loaded
+   * into an address space.  The sampling timer is started if this is
+   * the first program being profiled.
+   *
+   * @param space The address space in which the program runs.
+   * @param execName The name of the executable file.
+   */
+  public static void start(AddrSpace space, String execName) {
+    if (!enabled)
+      return;
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    profiles.put(space, new Profile(execName, nextProfile++));
+    if (timer == null)
+      timer = new Timer("profiler timer", new ProfilerInterruptHandler(),
+			true);
+    Interrupt.setLevel(oldLevel);
+  }
+
+  /**
+   * Finish profiling an address space, printing its flat profile and
+   * writing its folded file.  The sampling timer is
+   * cancelled once no more programs are being profiled, so that it does
+   * not keep the machine from halting when it becomes idle.
+   *
+   * @param space The address space whose program is exiting.
+   */
+  public static void finish(AddrSpace space) {
+    if (!enabled)
+      return;
+    int oldLevel = Interrupt.setLevel(Interrupt.IntOff);
+    Profile profile = profiles.remove(space);
+    if (profiles.isEmpty() && timer != null) {
+      timer.cancel();
+      timer = null;
+    }
+    Interrupt.setLevel(oldLevel);
+    if (profile != null)
+      profile.report();
+  }
+
+  /**
+   * Finish all profiles still in progress.  Called when the machine
+   * is about to halt.
+   */
+  public static void finishAll() {
+    if (!enabled)
+      return;
+    AddrSpace[] spaces = profiles.keySet().toArray(new AddrSpace[0]);
+    for (int i = 0; i < spaces.length; i++)
+      finish(spaces[i]);
+  }
+
+  /**
+   * Record one sample for the currently running thread, if it is
+   * executing a user program that is being profiled.
+   */
+  private static void sample() {
+    NachosThread current = Scheduler.currentThread();
+    if (!(current instanceof UserThread))
+      return;
+    UserThread thread = (UserThread)current;
+    Profile profile = profiles.get(thread.space);
+    if (profile != null)
+      profile.record(thread, Machine.readRegister(Machine.PCReg));
+  }
+
+  /**
+   * Interrupt handler for the profiler timer.
+   */
+  private static class ProfilerInterruptHandler extends InterruptHandler {
+    public void serviceDevice() {
+      sample();
+    }
+  }
+
+  /**
+   * The samples collected for one address space.  Samples are kept
+   * separately for each thread, as a map from program counter value
+   * to the number of times the thread was found at that address.
+   */
+  private static class Profile {
+
+    /** Name of the executable running in the address space. */
+    private final String execName;
+
+    /** Sequence number distinguishing this profile. */
+    private final int id;
+
+    /** Per-thread histograms, keyed by thread name. */
+    private final Map<String, Map<Integer, int[]>> histograms =
+	new HashMap<String, Map<Integer, int[]>>();
+
+    /** Total number of samples recorded. */
+    private int numSamples = 0;
+
+    Profile(String execName, int id) {
+      this.execName = execName;
+      this.id = id;
+    }
+
+    /**
+     * Record a sample.
+     *
+     * @param thread The thread that was interrupted.
+     * @param pc The user program counter of that thread.
+     */
+    void record(UserThread thread, int pc) {
+      Map<Integer, int[]> hist = histograms.get(thread.getName());
+      if (hist == null) {
+	hist = new HashMap<Integer, int[]>();
+	histograms.put(thread.getName(), hist);
+      }
+      int[] count = hist.get(pc);
+      if (count == null) {
+	count = new int[1];
+	hist.put(pc, count);
+      }
+      count[0]++;
+      numSamples++;
+    }
+
+    /**
+     * Symbolize the histograms, print the flat profile, and write the
+     * folded file (executable, thread and symbol; no callers).
+     */
+    void report() {
+      CoffInput.Symbol[] symbols = loadSymbols(execName + ".coff");
+      Map<String, int[]> flat = new HashMap<String, int[]>();
+      Map<String, int[]> folded = new HashMap<String, int[]>();
+
+      for (Map.Entry<String, Map<Integer, int[]>> t : histograms.entrySet()) {
+	for (Map.Entry<Integer, int[]> e : t.getValue().entrySet()) {
+	  String sym = symbolize(symbols, e.getKey().intValue());
+	  int n = e.getValue()[0];
+	  add(flat, sym, n);
+	  add(folded, execName + ";" + t.getKey() + ";" + sym, n);
+	}
+      }
+
+      Debug.printf('+', "Profile of %s: %d samples\n", execName,
+		   Integer.valueOf(numSamples));
+      Debug.print('+', "   %time  samples  symbol\n");
+      for (Map.Entry<String, int[]> e : sortByCount(flat)) {
+	int n = e.getValue()[0];
+	Debug.print('+', String.format("  %6.2f %8d  %s\n",
+				       100.0 * n / numSamples, n,
+				       e.getKey()));
+      }
+
+      String foldedName = execName + "." + id + ".folded";
+      try {
+	PrintWriter out = new PrintWriter(new FileWriter(foldedName));
+	for (Map.Entry<String, int[]> e : sortByCount(folded))
+	  out.println(e.getKey() + " " + e.getValue()[0]);
+	out.close();
+	Debug.println('+', "Folded profile written to " + foldedName);
+      } catch (IOException x) {
+	Debug.println('+', "Unable to write profile file: " + foldedName);
+      }
+    }
+
+    private static void add(Map<String, int[]> map, String key, int n) {
+      int[] count = map.get(key);
+      if (count == null) {
+	count = new int[1];
+	map.put(key, count);
+      }
+      count[0] += n;
+    }
+
+    private static ArrayList<Map.Entry<String, int[]>>
+	sortByCount(Map<String, int[]> map) {
+      ArrayList<Map.Entry<String, int[]>> list =
+	  new ArrayList<Map.Entry<String, int[]>>(map.entrySet());
+      Collections.sort(list, new Comparator<Map.Entry<String, int[]>>() {
+	  public int compare(Map.Entry<String, int[]> a,
+			     Map.Entry<String, int[]> b) {
+	    return b.getValue()[0] - a.getValue()[0];
+	  }
+	});
+      return list;
+    }
+
+    /**
+     * Read the code symbols from a COFF file.
+     *
+     * @param coffName The name of the COFF file.
+     * @return The symbols sorted by address, or an empty array if the
+     * file does not exist or cannot be read.
+     */
+    private static CoffInput.Symbol[] loadSymbols(String coffName) {
+      if (!new File(coffName).exists())
+	return new CoffInput.Symbol[0];
+      CoffInput coff = null;
+      try {
+	coff = new CoffInput(coffName);
+	return coff.readSymbols();
+      } catch (Exception x) {
+	Debug.println('+', "Unable to read symbols from " + coffName
+		      + ": " + x.getMessage());
+	return new CoffInput.Symbol[0];
+      } finally {
+	if (coff != null) {
+	  try {
+	    coff.close();
+	  } catch (IOException x) { }
+	}
+      }
+    }
+
+    /**
+     * Map an address to the name of the symbol that contains it:
+     * the symbol with the greatest address not exceeding it.
+     */
+    private static String symbolize(CoffInput.Symbol[] symbols, int pc) {
+      int lo = 0, hi = symbols.length - 1, found = -1;
+      while (lo <= hi) {
+	int mid = (lo + hi) >>> 1;
+	if (symbols[mid].value <= pc) {
+	  found = mid;
+	  lo = mid + 1;
+	} else {
+	  hi = mid - 1;
+	}
+      }
+      if (found < 0)
+	return "0x" + Integer.toHexString(pc);
+      return symbols[found].name;
+    }
+  }
+}
@@ -0,0 +1,99 @@
+// ReplacementPolicy.java
+//	Interface to page replacement policies.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+/**
+ * A ReplacementPolicy decides which resident page to evict when a page
+ * has to be brought into memory and there is no free frame.
+ *
+ * Policies do not look at page tables directly.  Instead they see
+ * physical memory through the Frames interface, which tells them which
+ * frames hold pages, and gives access to the reference (use) and dirty
+ * bits of those pages.  The Pager provides a Frames view of the machine's
+ * memory; the replacement simulator provides one of a simulated memory
+ * driven by a recorded page-reference trace.  The same policy objects
+ * can therefore be used in the kernel and evaluated offline.
+ *
+ * Policies that keep history (aging, working set) are given a chance
+ * to sample the reference bits by tick(), which is called at most once
+ * every TickInterval ticks of virtual time.
+ */
+public interface ReplacementPolicy {
+
+  /** Minimum virtual time, in ticks, between calls to tick(). */
+  public static final int TickInterval = 1000;
+
+  /**
+   * A view of physical memory, as seen by a replacement policy.
+   */
+  public interface Frames {
+
+    /** @return The number of frames. */
+    public int numFrames();
+
+    /**
+     * @param frame A frame number.
+     * @return true if the frame holds a page that could be evicted.
+     */
+    public boolean isResident(int frame);
+
+    /**
+     * @param frame A resident frame.
+     * @return true if the page in the frame has been referenced since
+     * its reference bit was last cleared.
+     */
+    public boolean isReferenced(int frame);
+
+    /**
+     * Clear the reference bit of the page in a frame.
+     *
+     * @param frame A resident frame.
+     */
+    public void clearReferenced(int frame);
+
+    /**
+     * @param frame A resident frame.
+     * @return true if the page in the frame has been modified since it
+     * was last written to backing store.
+     */
+    public boolean isDirty(int frame);
+
+    /** @return The current virtual time, in ticks. */
+    public int now();
+  }
+
+  /**
+   * @return A short name for the policy, used to select it on the
+   * command line and in reports.
+   */
+  public String getName();
+
+  /**
+   * Called when a page has been brought into a frame.
+   *
+   * @param frames The view of memory.
+   * @param frame The frame that now holds a new page.
+   */
+  public void loaded(Frames frames, int frame);
+
+  /**
+   * Called periodically, so that the policy can sample reference bits.
+   *
+   * @param frames The view of memory.
+   */
+  public void tick(Frames frames);
+
+  /**
+   * Choose a page to be evicted.
+   *
+   * @param frames The view of memory.
+   * @return The frame holding the chosen page, or -1 if no frame
+   * holds a page that could be evicted.
+   */
+  public int chooseVictim(Frames frames);
+}
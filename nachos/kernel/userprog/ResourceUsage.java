@@ -0,0 +1,180 @@
+// ResourceUsage.java
+//	Per-process resource accounting, in the style of UNIX getrusage().
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+import nachos.Debug;
+import nachos.Statistics;
+import nachos.machine.Machine;
+
+/**
+ * A ResourceUsage object accumulates the resources consumed by the
+ * threads of one address space: user and system ticks, page faults,
+ * disk sectors read and written, console characters read and written,
+ * and the number of system calls of each type.
+ *
+ * Rather than instrumenting every device, usage is charged by
+ * taking a snapshot of the machine-wide statistics when a thread of the
+ * address space gets the CPU (startInterval()), and charging the
+ * difference to the address space when the thread gives up the CPU
+ * (endInterval()).  Since Nachos runs on a uniprocessor, everything
+ * that happens in between was done on behalf of that thread.
+ */
+public class ResourceUsage {
+
+  /** Number of words in the usage record returned by SC_GetRUsage. */
+  public static final int NumFields = 8;
+
+  /** Largest system call code for which counts are kept separately. */
+  private static final int MaxSyscall = 32;
+
+  /** Time spent executing user code. */
+  public int userTicks;
+
+  /** Time spent executing system code. */
+  public int systemTicks;
+
+  /** Number of page faults. */
+  public int pageFaults;
+
+  /** Number of disk sectors read. */
+  public int diskReads;
+
+  /** Number of disk sectors written. */
+  public int diskWrites;
+
+  /** Number of characters read from the console. */
+  public int consoleCharsRead;
+
+  /** Number of characters written to the console. */
+  public int consoleCharsWritten;
+
+  /** Total number of system calls made. */
+  public int numSyscalls;
+
+  /** Number of system calls made, indexed by system call code. */
+  private int syscallCounts[] = new int[MaxSyscall];
+
+  /** Is an accounting interval in progress? */
+  private boolean running = false;
+
+  /* Machine-wide statistics at the start of the current interval. */
+  private int startUserTicks;
+  private int startSystemTicks;
+  private int startPageFaults;
+  private int startDiskReads;
+  private int startDiskWrites;
+  private int startConsoleCharsRead;
+  private int startConsoleCharsWritten;
+
+  /**
+   * Begin charging machine activity to this address space.
+   * Called when a thread of the address space gets the CPU.
+   */
+  public void startInterval() {
+    Statistics stats = Machine.stats;
+    startUserTicks = stats.userTicks;
+    startSystemTicks = stats.systemTicks;
+    startPageFaults = stats.numPageFaults;
+    startDiskReads = stats.numDiskReads;
+    startDiskWrites = stats.numDiskWrites;
+    startConsoleCharsRead = stats.numConsoleCharsRead;
+    startConsoleCharsWritten = stats.numConsoleCharsWritten;
+    running = true;
+  }
+
+  /**
+   * Charge the machine activity since the last call to startInterval()
+   * to this address space.  Called when a thread of the address space
+   * gives up the CPU.  Does nothing if no interval is in progress.
+   */
+  public void endInterval() {
+    if (!running)
+      return;
+    Statistics stats = Machine.stats;
+    userTicks += stats.userTicks - startUserTicks;
+    systemTicks += stats.systemTicks - startSystemTicks;
+    pageFaults += stats.numPageFaults - startPageFaults;
+    diskReads += stats.numDiskReads - startDiskReads;
+    diskWrites += stats.numDiskWrites - startDiskWrites;
+    consoleCharsRead += stats.numConsoleCharsRead - startConsoleCharsRead;
+    consoleCharsWritten +=
+	stats.numConsoleCharsWritten - startConsoleCharsWritten;
+    running = false;
+  }
+
+  /**
+   * Record that a system call has been made.
+   *
+   * @param type The system call code.
+   */
+  public void countSyscall(int type) {
+    numSyscalls++;
+    if (type >= 0 && type < MaxSyscall)
+      syscallCounts[type]++;
+  }
+
+  /**
+   * Bring the usage up to date, including the interval currently
+   * in progress, if any.
+   */
+  public void update() {
+    if (running) {
+      endInterval();
+      startInterval();
+    }
+  }
+
+  /**
+   * Get the usage as an array of words, in the order in which
+   * they are returned to user programs by SC_GetRUsage:
+   * user ticks, system ticks, page faults, disk reads, disk writes,
+   * console characters read, console characters written, system calls.
+   *
+   * @return The usage record.
+   */
+  public int[] toArray() {
+    update();
+    int record[] = new int[NumFields];
+    record[0] = userTicks;
+    record[1] = systemTicks;
+    record[2] = pageFaults;
+    record[3] = diskReads;
+    record[4] = diskWrites;
+    record[5] = consoleCharsRead;
+    record[6] = consoleCharsWritten;
+    record[7] = numSyscalls;
+    return record;
+  }
+
+  /**
+   * Print a summary of the usage, ending with the number of system
+   * calls of each type made.
+   *
+   * @param name Name of the process, for the heading.
+   */
+  public void print(String name) {
+    update();
+    Debug.printf('+', "Usage of %s: ticks user %d, system %d\n", name,
+		 Integer.valueOf(userTicks), Integer.valueOf(systemTicks));
+    Debug.printf('+', "  page faults %d, disk reads %d, writes %d\n",
+		 Integer.valueOf(pageFaults), Integer.valueOf(diskReads),
+		 Integer.valueOf(diskWrites));
+    Debug.printf('+', "  console reads %d, writes %d, syscalls %d\n",
+		 Integer.valueOf(consoleCharsRead),
+		 Integer.valueOf(consoleCharsWritten),
+		 Integer.valueOf(numSyscalls));
+    StringBuffer calls = new StringBuffer();
+    for (int type = 0; type < MaxSyscall; type++) {
+      if (syscallCounts[type] > 0)
+	calls.append((calls.length() > 0 ? ", " : "")
+		     + SyscallTracer.nameOf(type) + " " + syscallCounts[type]);
+    }
+    if (calls.length() > 0)
+      Debug.println('+', "  calls: " + calls);
+  }
+}
@@ -0,0 +1,52 @@
+// SecondChancePolicy.java
+//	Enhanced second chance page replacement.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+/**
+ * The enhanced second chance algorithm is the clock algorithm, extended
+ * to take into account whether pages are dirty, since evicting a clean
+ * page costs no disk write.  Pages fall into four classes, by
+ * (referenced, dirty): (0,0) is the best victim, then (0,1), (1,0),
+ * and (1,1).  The hand makes up to four passes: first looking for a
+ * (0,0) page without changing anything, then for a (0,1) page while
+ * clearing the reference bits of the pages it passes, and then the same
+ * two passes again, by which time every reference bit is clear.
+ */
+public class SecondChancePolicy implements ReplacementPolicy {
+
+  /** The frame at which the clock hand currently points. */
+  private int hand = 0;
+
+  public String getName() {
+    return "esc";
+  }
+
+  public void loaded(Frames frames, int frame) { }
+
+  public void tick(Frames frames) { }
+
+  public int chooseVictim(Frames frames) {
+    int numFrames = frames.numFrames();
+
+    for (int pass = 0; pass < 4; pass++) {
+      boolean wantDirty = (pass % 2 == 1);
+      for (int i = 0; i < numFrames; i++) {
+	int frame = hand;
+	hand = (hand + 1) % numFrames;
+	if (!frames.isResident(frame))
+	  continue;
+	if (!frames.isReferenced(frame)
+	    && frames.isDirty(frame) == wantDirty)
+	  return frame;
+	if (wantDirty)
+	  frames.clearReferenced(frame);
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,190 @@
+// SwapCache.java
+//	Compressed in-memory cache of swap slots, in front of the disk.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import nachos.Debug;
+import nachos.machine.Machine;
+
+/**
+ * A SwapCache holds the contents of swap slots deflated, in a pool of
+ * kernel memory of bounded size, so that pages written to the swap
+ * area need not go to the disk, and pages read back from it need not
+ * come from the disk, as long as the pool has room for them.  The
+ * user data segments, stacks and heaps that get swapped out are mostly
+ * zeroes and small integers, and compress several times over.
+ *
+ * A page written to a slot is deflated into the pool, replacing
+ * whatever the pool held for the slot.  When the pool is full, the
+ * slots used least recently are spilled: inflated and written to the
+ * disk, and dropped from the pool.  A page that does not compress to
+ * less than a page is written to the disk straight away.  A read of a
+ * slot in the pool inflates the page without any I/O; the slot stays
+ * in the pool, since a clean page evicted later is not written again,
+ * and its only copy is there.
+ *
+ * The cache is part of the SwapSpace (see SwapSpace.enableCache()),
+ * and is turned on with the -zc <pages> command-line option, which
+ * gives the size of the pool, in pages of compressed data.  Like the
+ * SwapSpace, it relies on its callers to serialize calls to it.
+ *
+ * The statistics count pages stored, hits, misses and spills, the
+ * bytes stored and their compressed size, and the time taken by the
+ * page transfers that did go to the disk, from which the time saved
+ * is estimated: a hit saves a read, and a store that is never spilled
+ * saves a write (see Statistics.print()).
+ */
+class SwapCache {
+
+  /** The swap area whose slots are cached. */
+  private final SwapSpace swap;
+
+  /** Size of the pool, in bytes. */
+  private final int capacity;
+
+  /** Number of bytes of the pool in use. */
+  private int used = 0;
+
+  /** Deflated pages, by slot, least recently used first. */
+  private final LinkedHashMap<Integer, byte[]> pool =
+    new LinkedHashMap<Integer, byte[]>(16, 0.75f, true);
+
+  /** Compressor, reused for every page. */
+  private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+  /** Decompressor, reused for every page. */
+  private final Inflater inflater = new Inflater();
+
+  /** Buffer into which pages are deflated. */
+  private final byte deflated[] = new byte[Machine.PageSize];
+
+  /** Buffer into which spilled pages are inflated. */
+  private final byte page[] = new byte[Machine.PageSize];
+
+  /**
+   * Create a cache for a swap area.
+   *
+   * @param swap The swap area.
+   * @param numPages The size of the pool, in pages.
+   */
+  SwapCache(SwapSpace swap, int numPages) {
+    this.swap = swap;
+    capacity = numPages * Machine.PageSize;
+  }
+
+  /**
+   * Read a page from a slot, if the pool holds it.
+   *
+   * @param slot The slot.
+   * @param into The buffer into which the page is read.
+   * @param index The offset in the buffer at which to put the page.
+   * @return true if the page was read, false if it must come from the
+   * disk.
+   */
+  boolean read(int slot, byte into[], int index) {
+    byte data[] = pool.get(Integer.valueOf(slot));
+    if (data == null) {
+      Machine.stats.numSwapCacheMisses++;
+      return false;
+    }
+    inflate(data, into, index);
+    Machine.stats.numSwapCacheHits++;
+    return true;
+  }
+
+  /**
+   * Write a page to a slot, by deflating it into the pool, spilling
+   * other slots to make room if need be.
+   *
+   * @param slot The slot.
+   * @param from The buffer holding the page.
+   * @param index The offset in the buffer at which the page starts.
+   * @return true if the page was stored, false if it does not compress
+   * and must be written to the disk.
+   */
+  boolean write(int slot, byte from[], int index) {
+    discard(slot);
+    deflater.reset();
+    deflater.setInput(from, index, Machine.PageSize);
+    deflater.finish();
+    int length = deflater.deflate(deflated);
+    if (!deflater.finished() || length >= Machine.PageSize
+	|| length > capacity)
+      return false;
+
+    while (used + length > capacity)
+      spill();
+    byte data[] = new byte[length];
+    System.arraycopy(deflated, 0, data, 0, length);
+    pool.put(Integer.valueOf(slot), data);
+    used += length;
+    Machine.stats.numSwapCacheStores++;
+    Machine.stats.swapCacheBytesIn += Machine.PageSize;
+    Machine.stats.swapCacheBytesOut += length;
+    return true;
+  }
+
+  /**
+   * Drop a slot from the pool, if it is there, as when the slot is
+   * freed or about to be written.
+   *
+   * @param slot The slot.
+   */
+  void discard(int slot) {
+    byte data[] = pool.remove(Integer.valueOf(slot));
+    if (data != null)
+      used -= data.length;
+  }
+
+  /**
+   * Record the time taken by a read or write of a page on the disk.
+   *
+   * @param ticks The number of ticks taken.
+   */
+  void timed(int ticks) {
+    Machine.stats.numSwapDiskTransfers++;
+    Machine.stats.swapDiskTicks += ticks;
+  }
+
+  /**
+   * Spill the slot used least recently to the disk.
+   */
+  private void spill() {
+    Iterator<Map.Entry<Integer, byte[]>> it = pool.entrySet().iterator();
+    Map.Entry<Integer, byte[]> eldest = it.next();
+    it.remove();
+    int slot = eldest.getKey().intValue();
+    byte data[] = eldest.getValue();
+    used -= data.length;
+    inflate(data, page, 0);
+    swap.writeToDisk(slot, page, 0);
+    Machine.stats.numSwapCacheSpills++;
+    Debug.println('a', "SwapCache: slot " + slot + " spilled to disk");
+  }
+
+  /**
+   * Inflate a page from the pool.
+   */
+  private void inflate(byte data[], byte into[], int index) {
+    inflater.reset();
+    inflater.setInput(data);
+    try {
+      int length = inflater.inflate(into, index, Machine.PageSize);
+      Debug.ASSERT(length == Machine.PageSize,
+		   "SwapCache: short page in pool");
+    } catch (DataFormatException e) {
+      Debug.ASSERT(false, "SwapCache: corrupt page in pool");
+    }
+  }
+}
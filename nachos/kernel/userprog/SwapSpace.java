@@ -0,0 +1,207 @@
+// SwapSpace.java
+//	Backing store for virtual memory pages, kept on the Nachos disk.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+import nachos.Debug;
+import nachos.machine.Disk;
+import nachos.machine.Machine;
+import nachos.kernel.devices.DiskDriver;
+
+/**
+ * A SwapSpace is an area of the disk used to hold pages that have been
+ * evicted from physical memory.  The area is divided into slots, each
+ * holding one page.
+ *
+ * Address spaces may be large and sparse (a stack that grows down, a
+ * heap that grows up), so a page is given a slot of its own only when
+ * it is first written out.  So that eviction can never fail for want
+ * of a slot, though, an address space reserves a slot for each page it
+ * may use when it takes the page on (see reserve()), and each slot
+ * later allocated uses up one reservation.  Slots are handed out
+ * first fit from where the last one was found, so pages evicted
+ * together, such as a cluster of neighbours, tend to lie together on
+ * the disk.
+ *
+ * Callers are expected to serialize calls to reserve(), allocatePage()
+ * and the like (the Pager does this with its lock); reading and writing
+ * slots goes through the DiskDriver, which does its own synchronization.
+ * If a SwapCache has been enabled, though, reads and writes go to it
+ * first, and must be serialized too.
+ */
+public class SwapSpace {
+
+  /** The disk on which the swap area lives. */
+  private final DiskDriver disk;
+
+  /** The first sector of the swap area. */
+  private final int firstSector;
+
+  /** Number of disk sectors occupied by one page. */
+  private final int sectorsPerPage;
+
+  /** Is each slot in use? */
+  private final boolean used[];
+
+  /** Number of slots not in use. */
+  private int numFree;
+
+  /** Number of the free slots that have been reserved. */
+  private int numReserved = 0;
+
+  /** Where to start looking for the next free slot. */
+  private int next = 0;
+
+  /** The compressed cache in front of the disk, or null if none. */
+  private SwapCache cache = null;
+
+  /**
+   * Create a swap area on a range of disk sectors.
+   *
+   * @param disk The disk driver.
+   * @param firstSector The first sector of the swap area.
+   * @param numSectors The number of sectors in the swap area.
+   */
+  public SwapSpace(DiskDriver disk, int firstSector, int numSectors) {
+    Debug.ASSERT(Machine.PageSize % Disk.SectorSize == 0,
+		 "SwapSpace: page size must be a multiple of sector size");
+    this.disk = disk;
+    this.firstSector = firstSector;
+    sectorsPerPage = Machine.PageSize / Disk.SectorSize;
+    used = new boolean[numSectors / sectorsPerPage];
+    numFree = used.length;
+  }
+
+  /**
+   * Keep slots in a compressed cache in memory, writing them to the
+   * disk only when the cache is full.
+   *
+   * @param numPages The size of the cache, in pages.
+   */
+  public void enableCache(int numPages) {
+    cache = new SwapCache(this, numPages);
+  }
+
+  /**
+   * Reserve slots for pages that may later be written out.
+   *
+   * @param numPages The number of slots to reserve.
+   * @return false, reserving nothing, if there are not that many free
+   * slots unreserved.
+   */
+  public boolean reserve(int numPages) {
+    if (numPages > numFree - numReserved)
+      return false;
+    numReserved += numPages;
+    return true;
+  }
+
+  /**
+   * Give back reservations that will not be used.
+   *
+   * @param numPages The number of reservations.
+   */
+  public void unreserve(int numPages) {
+    Debug.ASSERT(numPages <= numReserved, "SwapSpace: unreserving too many");
+    numReserved -= numPages;
+  }
+
+  /**
+   * Allocate a slot, using up a reservation.
+   *
+   * @return The slot.
+   */
+  public int allocatePage() {
+    Debug.ASSERT(numReserved > 0, "SwapSpace: allocating unreserved slot");
+    for (int i = 0; i < used.length; i++) {
+      int slot = (next + i) % used.length;
+      if (!used[slot]) {
+	used[slot] = true;
+	numFree--;
+	numReserved--;
+	next = (slot + 1) % used.length;
+	return slot;
+      }
+    }
+    Debug.ASSERT(false, "SwapSpace: no free slot");
+    return -1;
+  }
+
+  /**
+   * Free a slot obtained from allocatePage().  Its reservation is not
+   * given back.
+   *
+   * @param slot The slot.
+   */
+  public void freePage(int slot) {
+    Debug.ASSERT(used[slot], "SwapSpace: freeing a free slot");
+    if (cache != null)
+      cache.discard(slot);
+    used[slot] = false;
+    numFree++;
+  }
+
+  /**
+   * @return The total number of slots.
+   */
+  public int numSlots() {
+    return used.length;
+  }
+
+  /**
+   * @return The number of slots neither in use nor reserved.
+   */
+  public int numFree() {
+    return numFree - numReserved;
+  }
+
+  /**
+   * Read a page from a slot.
+   *
+   * @param slot The slot.
+   * @param into The buffer into which the page is read.
+   * @param index The offset in the buffer at which to put the page.
+   */
+  public void readPage(int slot, byte into[], int index) {
+    if (cache != null && cache.read(slot, into, index))
+      return;
+    int start = Machine.stats.totalTicks;
+    int sector = firstSector + slot * sectorsPerPage;
+    for (int i = 0; i < sectorsPerPage; i++)
+      disk.readSector(sector + i, into, index + i * Disk.SectorSize);
+    if (cache != null)
+      cache.timed(Machine.stats.totalTicks - start);
+  }
+
+  /**
+   * Write a page to a slot.
+   *
+   * @param slot The slot.
+   * @param from The buffer holding the page.
+   * @param index The offset in the buffer at which the page starts.
+   */
+  public void writePage(int slot, byte from[], int index) {
+    if (cache == null || !cache.write(slot, from, index))
+      writeToDisk(slot, from, index);
+  }
+
+  /**
+   * Write a page to a slot on the disk, bypassing any cache.
+   *
+   * @param slot The slot.
+   * @param from The buffer holding the page.
+   * @param index The offset in the buffer at which the page starts.
+   */
+  void writeToDisk(int slot, byte from[], int index) {
+    int start = Machine.stats.totalTicks;
+    int sector = firstSector + slot * sectorsPerPage;
+    for (int i = 0; i < sectorsPerPage; i++)
+      disk.writeSector(sector + i, from, index + i * Disk.SectorSize);
+    if (cache != null)
+      cache.timed(Machine.stats.totalTicks - start);
+  }
+}
@@ -8,7 +8,9 @@ package nachos.kernel.userprog;
 
 import nachos.Debug;
 import nachos.kernel.Nachos;
+import nachos.kernel.filesys.OpenFile;
 import nachos.machine.Interrupt;
+import nachos.machine.Machine;
 import nachos.kernel.threads.Scheduler;
 
 /**
@@ -57,25 +59,68 @@ public class Syscall {
   /** Integer code identifying the "Remove" system call. */
   public static final byte SC_Remove = 11;
 
+  /** Integer code identifying the "GetRUsage" system call. */
+  public static final byte SC_GetRUsage = 12;
+
+  /** Integer code identifying the "Trace" system call. */
+  public static final byte SC_Trace = 13;
+
+  /** Integer code identifying the "ForkProcess" system call. */
+  public static final byte SC_ForkProcess = 14;
+
+  /** Integer code identifying the "Sbrk" system call. */
+  public static final byte SC_Sbrk = 15;
+
+  /** Integer code identifying the "Mmap" system call. */
+  public static final byte SC_Mmap = 16;
+
+  /** Integer code identifying the "Munmap" system call. */
+  public static final byte SC_Munmap = 17;
+
+  /** Integer code identifying the "Pipe" system call. */
+  public static final byte SC_Pipe = 18;
+
 
   /**
    * Stop Nachos, and print out performance stats.
    */
   public static void halt() {
+    Nachos.consoleDriver.flush();
     Debug.print('+', "Shutdown, initiated by user program.\n");
+    Profiler.finishAll();
     Interrupt.halt();
   }
 
   /* Address space control operations: Exit, Exec, and Join */
 
   /**
-   * This user program is done.
+   * This user program is done.  If other threads (started by Fork) are
+   * still running in its address space, only the calling thread is
+   * done, and its stack is kept for reuse; the program exits when its
+   * last thread does, with that thread's status.
    *
    * @param status Status code to pass to processes doing a Join().
    * status = 0 means the program exited normally.
    */
   public static void exit(int status) {
+    UserThread thread = (UserThread)Scheduler.currentThread();
+    if (thread.space.removeThread() > 0) {
+      Debug.println('+', "User thread " + thread.getName()
+		    + " exits with status=" + status);
+      thread.space.usage.endInterval();
+      if (thread.stackTop != -1)
+	thread.space.freeStack(thread.stackTop);
+      Scheduler.finish();
+      return;
+    }
     Debug.println('+', "User program exits with status=" + status);
+    thread.space.usage.endInterval();
+    thread.space.usage.print(thread.getName());
+    thread.space.tracer.print(thread.getName());
+    thread.space.printSharing(thread.getName());
+    Profiler.finish(thread.space);
+    thread.space.free();
+    ProcessTable.exit(thread.space, status);
     Scheduler.finish();
   }
 
@@ -83,18 +128,94 @@ public class Syscall {
    * Run the executable, stored in the Nachos file "name", and return the 
    * address space identifier.
    *
+   * The executable is read (or found in the ExecImageCache) here, so
+   * that failure can be reported to the caller; its pages are brought
+   * in on demand once the new process runs.
+   *
    * @param name The name of the file to execute.
+   * @return The SpaceId of the new process, or -1 if the file cannot
+   * be opened or is not an executable, or there is no room for
+   * another process.
    */
-  public static int exec(String name) {return 0;}
+  public static int exec(String name) {
+    OpenFile executable = name == null ? null : Nachos.fileSystem.open(name);
+    if (executable == null) {
+      Debug.println('+', "Exec: unable to open executable file: " + name);
+      return -1;
+    }
+    final AddrSpace space = new AddrSpace();
+    if (space.exec(executable, name) == -1) {
+      Debug.println('+', "Exec: unable to read executable file: " + name);
+      return -1;
+    }
+    UserThread parent = (UserThread)Scheduler.currentThread();
+    int id = ProcessTable.add(space, parent.space);
+    if (id == -1) {
+      space.free();
+      return -1;
+    }
+
+    final String execName = name;
+    UserThread child =
+      new UserThread(name + " " + id, new Runnable() {
+	  public void run() {
+	    space.usage.startInterval();
+	    Profiler.start(space, execName);
+	    space.initRegisters();
+	    space.restoreState();
+	    Machine.run();
+	    Debug.ASSERT(false);	// the process exits by SC_Exit
+	  }
+	}, space);
+    Scheduler.readyToRun(child);
+    return id;
+  }
  
+  /**
+   * Get the resources consumed so far by the calling program.
+   *
+   * @return The usage record, in the order described in ResourceUsage.
+   */
+  public static int[] getRUsage() {
+    return ((UserThread)Scheduler.currentThread()).space.usage.toArray();
+  }
+
+  /**
+   * Grow (or shrink) the heap of the calling program, UNIX-style.
+   * The new heap pages are zero-filled when first touched.
+   *
+   * @param increment The number of bytes by which to move the break.
+   * @return The old break, that is, the address of the new memory, or
+   * -1 if the heap cannot be changed so.
+   */
+  public static int sbrk(int increment) {
+    return ((UserThread)Scheduler.currentThread()).space.sbrk(increment);
+  }
+
+  /**
+   * Turn system call tracing on or off for the calling program.
+   *
+   * @param flags Any combination of SyscallTracer.LOG, to log each
+   * system call, and SyscallTracer.STATS, to keep per-call counts and
+   * latency histograms; zero turns tracing off.
+   */
+  public static void trace(int flags) {
+    ((UserThread)Scheduler.currentThread()).space.tracer.setFlags(flags);
+  }
+
   /**
    * Wait for the user program specified by "id" to finish, and
-   * return its exit status.
+   * return its exit status.  Only the parent of a program (the one
+   * that started it with Exec or Fork) may join it, and only once.
    *
    * @param id The "space ID" of the program to wait for.
-   * @return the exit status of the specified program.
+   * @return the exit status of the specified program, or -1 if it is
+   * not a child of the caller.
    */
-  public static int join(int id) {return 0;}
+  public static int join(int id) {
+    UserThread thread = (UserThread)Scheduler.currentThread();
+    return ProcessTable.join(thread.space, id);
+  }
  
 
   /* File system operations: Create, Open, Read, Write, Close
@@ -124,23 +245,39 @@ public class Syscall {
    *
    * @param name  The name of the file to be created.
    */
-  public static void create(String name) { }
+  public static void create(String name) {
+    if (name == null || !Nachos.fileSystem.create(name, 0))
+      Debug.println('+', "Create: unable to create " + name);
+  }
 
   /**
    * Remove a Nachos file.
    *
    * @param name  The name of the file to be removed.
    */
-  public static void remove(String name) { }
+  public static void remove(String name) {
+    if (name == null || !Nachos.fileSystem.remove(name))
+      Debug.println('+', "Remove: unable to remove " + name);
+  }
 
   /**
    * Open the Nachos file "name", and return an "OpenFileId" that can 
    * be used to read and write to the file.
    *
    * @param name  The name of the file to open.
-   * @return  An OpenFileId that uniquely identifies the opened file.
+   * @return  An OpenFileId that uniquely identifies the opened file,
+   * or -1 if the file does not exist or the calling program has too
+   * many files open.
    */
-  public static int open(String name) {return 0;}
+  public static int open(String name) {
+    OpenFile file = name == null ? null : Nachos.fileSystem.open(name);
+    if (file == null)
+      return -1;
+    int id = currentFiles().add(file);
+    if (id == -1)
+      file.close();
+    return id;
+  }
 
   /**
    * Write "size" bytes from "buffer" to the open file.
@@ -148,13 +285,18 @@ public class Syscall {
    * @param buffer Location of the data to be written.
    * @param size The number of bytes to write.
    * @param id The OpenFileId of the file to which to write the data.
+   * @return The number of bytes written, or -1 if id does not denote
+   * an open file.
    */
-  public static void write(byte buffer[], int size, int id) {
+  public static int write(byte buffer[], int size, int id) {
       if (id == ConsoleOutput) {
-	  for(int i = 0; i < size; i++) {
-	      Nachos.consoleDriver.putChar((char)buffer[i]);
-	  }
+	  Nachos.consoleDriver.write(buffer, 0, size);
+	  return size;
       }
+      OpenFile file = currentFiles().get(id);
+      if (file == null)
+	  return -1;
+      return file.write(buffer, 0, size);
   }
 
   /**
@@ -169,14 +311,80 @@ public class Syscall {
    * @param id The OpenFileId of the file from which to read the data.
    * @return The actual number of bytes read.
    */
-  public static int read(byte buffer[], int size, int id) {return 0;}
+  public static int read(byte buffer[], int size, int id) {
+      if (id == ConsoleInput) {
+	  return Nachos.consoleDriver.read(buffer, 0, size);
+      }
+      OpenFile file = currentFiles().get(id);
+      if (file == null)
+	  return -1;
+      return Math.max(0, file.read(buffer, 0, size));
+  }
 
   /**
    * Close the file, we're done reading and writing to it.
    *
    * @param id  The OpenFileId of the file to be closed.
    */
-  public static void close(int id) {}
+  public static void close(int id) {
+    currentFiles().close(id);
+  }
+
+  /**
+   * Map the first "length" bytes of an open file into the address
+   * space of the calling program, so that it can read and write them
+   * as memory.  Pages are read from the file as they are touched, and
+   * changed pages are written back to it when evicted or unmapped (at
+   * the latest, when the program exits).
+   *
+   * @param id The OpenFileId of the file, which may be closed while
+   * the mapping remains.
+   * @param length The number of bytes to map.
+   * @return The address of the mapping, or -1 if the file could not be
+   * mapped.
+   */
+  public static int mmap(int id, int length) {
+    return ((UserThread)Scheduler.currentThread()).space.mmap(id, length);
+  }
+
+  /**
+   * Unmap a file mapped by mmap(), writing back any changes.
+   *
+   * @param addr The address of the mapping.
+   * @return 0, or -1 if there is no mapping at addr.
+   */
+  public static int munmap(int addr) {
+    return ((UserThread)Scheduler.currentThread()).space.munmap(addr);
+  }
+
+  /**
+   * Create a pipe, and open both its ends in the calling program.
+   *
+   * @return The OpenFileIds of the read end and the write end, in that
+   * order, or null if the calling program has too many files open.
+   */
+  public static int[] pipe() {
+    Pipe pipe = new Pipe();
+    FileTable files = currentFiles();
+    int readId = files.add(pipe.readEnd);
+    int writeId = readId == -1 ? -1 : files.add(pipe.writeEnd);
+    if (writeId == -1) {
+      if (readId == -1)
+	pipe.readEnd.close();
+      else
+	files.close(readId);
+      pipe.writeEnd.close();
+      return null;
+    }
+    return new int[] { readId, writeId };
+  }
+
+  /**
+   * @return The open file table of the calling program.
+   */
+  private static FileTable currentFiles() {
+    return ((UserThread)Scheduler.currentThread()).space.files;
+  }
 
 
   /*
@@ -184,19 +392,105 @@ public class Syscall {
    * threads to run within a user program. 
    */
 
+  /** Number of threads started by fork(). */
+  private static int numThreads = 0;
+
   /**
-   * Fork a thread to run a procedure ("func") in the *same* address space 
-   * as the current thread.
+   * Fork a thread to run a procedure ("func") in the *same* address
+   * space as the current thread.  The new thread has registers of its
+   * own, and a stack of its own (see AddrSpace.allocateStack()), and
+   * starts at func with its other registers (such as the global
+   * pointer) as the caller's.  The procedure must end by calling Exit:
+   * its return address is not a valid one, so returning from it faults,
+   * and the thread is made to exit with status -1.
    *
-   * @param func The user address of the procedure to be run by the
-   * new thread.
+   * @param func The user virtual address of the procedure.
+   * @return 0, or -1 if the thread could not be created.
    */
-  public static void fork(int func) {}
+  public static int fork(int func) {
+    UserThread parent = (UserThread)Scheduler.currentThread();
+    final AddrSpace space = parent.space;
+    int stackTop = space.allocateStack();
+    if (stackTop == -1)
+      return -1;
+
+    final int registers[] = new int[Machine.NumTotalRegs];
+    for (int i = 0; i < Machine.NumTotalRegs; i++)
+      registers[i] = Machine.readRegister(i);
+    registers[Machine.PCReg] = func;
+    registers[Machine.NextPCReg] = func + 4;
+    registers[Machine.StackReg] = stackTop;
+    registers[Machine.RetAddrReg] = -Machine.PageSize;	// never valid
+
+    UserThread child =
+      new UserThread(parent.getName() + " thread " + ++numThreads,
+		     new Runnable() {
+	  public void run() {
+	    space.usage.startInterval();
+	    for (int i = 0; i < Machine.NumTotalRegs; i++)
+	      Machine.writeRegister(i, registers[i]);
+	    space.restoreState();
+	    Machine.run();
+	    Debug.ASSERT(false);	// the thread exits by SC_Exit
+	  }
+	}, space);
+    child.stackTop = stackTop;
+    space.addThread();
+    Scheduler.readyToRun(child);
+    return 0;
+  }
+
+  /**
+   * Create a child process running in a copy of the address space of
+   * the current thread, UNIX-style.  The copy is made copy-on-write
+   * (see AddrSpace.fork()).  The child starts with the parent's
+   * registers, so it returns from the system call at the same point,
+   * but with a result of 0.
+   *
+   * @return The SpaceId of the child, to the parent, or -1 if the
+   * child could not be created.
+   */
+  public static int forkProcess() {
+    UserThread parent = (UserThread)Scheduler.currentThread();
+    final AddrSpace space = parent.space.fork();
+    if (space == null)
+      return -1;
+
+    // The child resumes after the SYSCALL instruction, with result 0.
+    final int registers[] = new int[Machine.NumTotalRegs];
+    for (int i = 0; i < Machine.NumTotalRegs; i++)
+      registers[i] = Machine.readRegister(i);
+    registers[2] = 0;
+    registers[Machine.PrevPCReg] = registers[Machine.PCReg];
+    registers[Machine.PCReg] = registers[Machine.NextPCReg];
+    registers[Machine.NextPCReg] += 4;
+
+    int id = ProcessTable.add(space, parent.space);
+    if (id == -1) {
+      space.free();
+      return -1;
+    }
+    UserThread child =
+      new UserThread(parent.getName() + " fork " + id, new Runnable() {
+	  public void run() {
+	    space.usage.startInterval();
+	    for (int i = 0; i < Machine.NumTotalRegs; i++)
+	      Machine.writeRegister(i, registers[i]);
+	    space.restoreState();
+	    Machine.run();
+	    Debug.ASSERT(false);	// the child exits by SC_Exit
+	  }
+	}, space);
+    Scheduler.readyToRun(child);
+    return id;
+  }
 
   /**
    * Yield the CPU to another runnable thread, whether in this address space 
    * or not. 
    */
-  public static void yield() {}
+  public static void yield() {
+    Scheduler.yield();
+  }
 
 }
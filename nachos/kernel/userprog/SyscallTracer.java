@@ -0,0 +1,336 @@
+// SyscallTracer.java
+//	Tracing and latency profiling of system calls, in the style of
+//	the UNIX strace utility.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+import nachos.Debug;
+import nachos.machine.Machine;
+import nachos.kernel.threads.Scheduler;
+
+/**
+ * A SyscallTracer observes the system calls made by the threads of
+ * one address space.  It can do two things, which are switched on and
+ * off independently for each process, either from the command line
+ * (-strace turns both on for every program) or at run time by the
+ * program itself through the SC_Trace system call:
+ *
+ *	LOG -- print one line per system call, showing the calling thread,
+ *		the call with its decoded arguments, the return value,
+ *		and the latency of the call in ticks.
+ *
+ *	STATS -- keep, for each system call, a count, the total number of
+ *		bytes transferred (for Read and Write), and a histogram of
+ *		latencies in power-of-two buckets, which is printed when
+ *		the program exits.
+ *
+ * The histograms make it easy to spot "chatty" programs, for example
+ * ones that call Write once per byte.
+ *
+ * Several threads may be in system calls in the same address space at
+ * once, when one blocks and another runs, so the state of a call in
+ * progress is kept in a Call, returned by enter() to the calling
+ * thread and handed back by it to leave(), not in the tracer.
+ * test/tracethreads.c traces two such calls.
+ */
+public class SyscallTracer {
+
+  /** Flag that enables logging of each system call. */
+  public static final int LOG = 1;
+
+  /** Flag that enables per-system-call counts and histograms. */
+  public static final int STATS = 2;
+
+  /** Number of latency buckets: bucket i holds latencies < 2^i ticks. */
+  private static final int NumBuckets = 20;
+
+  /** Largest system call code that is traced. */
+  private static final int MaxSyscall = 32;
+
+  /** Longest string argument that is decoded for printing. */
+  private static final int MaxStringArg = 64;
+
+  /** Printable names of the system calls, indexed by code. */
+  private static final String names[] = {
+    "Halt", "Exit", "Exec", "Join", "Create", "Open", "Read", "Write",
+    "Close", "Fork", "Yield", "Remove", "GetRUsage", "Trace",
+    "ForkProcess", "Sbrk", "Mmap", "Munmap", "Pipe"
+  };
+
+  /** Flags given to each new address space. */
+  private static int defaultFlags = 0;
+
+  /** Tracing flags currently in effect for this address space. */
+  private int flags;
+
+  /** Number of calls, indexed by system call code. */
+  private int counts[];
+
+  /** Total latency in ticks, indexed by system call code. */
+  private long totalTicks[];
+
+  /** Total bytes transferred, indexed by system call code. */
+  private long totalBytes[];
+
+  /** Latency histograms, indexed by system call code and bucket. */
+  private int histograms[][];
+
+  /** A system call in progress, from enter() to leave(). */
+  public static class Call {
+
+    /** The system call code. */
+    final int type;
+
+    /** Time at which the call was made. */
+    final int start;
+
+    /** The call as logged, or null if it is not being logged. */
+    String text;
+
+    /** Bytes written, for a Write; see transferred(). */
+    int bytes;
+
+    Call(int type) {
+      this.type = type;
+      start = Machine.stats.totalTicks;
+    }
+  }
+
+  /**
+   * Process command-line arguments, to see whether tracing has been
+   * requested for all programs.
+   *
+   * @param args Command-line arguments.
+   */
+  public static void init(String[] args) {
+    for (int i=0; i<args.length; i++) {
+      if (args[i].equals("-strace"))
+	defaultFlags = LOG | STATS;
+    }
+  }
+
+  /**
+   * Create a tracer for a new address space, with the flags selected
+   * on the command line.
+   */
+  public SyscallTracer() {
+    setFlags(defaultFlags);
+  }
+
+  /**
+   * Change the tracing flags for this address space.
+   *
+   * @param newFlags The new flags: any combination of LOG and STATS.
+   */
+  public void setFlags(int newFlags) {
+    flags = newFlags & (LOG | STATS);
+    if ((flags & STATS) != 0 && counts == null) {
+      counts = new int[MaxSyscall];
+      totalTicks = new long[MaxSyscall];
+      totalBytes = new long[MaxSyscall];
+      histograms = new int[MaxSyscall][NumBuckets];
+    }
+  }
+
+  /**
+   * Called by the exception handler before a system call is serviced.
+   * The arguments are decoded from the user registers now, since
+   * the call might change them.  Exit and Halt do not return, so they
+   * are logged right away.
+   *
+   * @param type The system call code.
+   * @return The call, to be passed to leave(), or null if the address
+   * space is not being traced.
+   */
+  public Call enter(int type) {
+    if (flags == 0)
+      return null;
+    Call call = new Call(type);
+    if ((flags & LOG) != 0) {
+      call.text = "[" + Scheduler.currentThread().getName() + "] "
+	  + decode(type);
+      if (type == Syscall.SC_Exit || type == Syscall.SC_Halt)
+	Debug.println('+', call.text + " = ?");
+    }
+    return call;
+  }
+
+  /**
+   * Record the number of bytes a Write actually wrote, which may be
+   * less than it asked for.  (A Read returns its count in r2.)
+   *
+   * @param call The call, as returned by enter(), or null.
+   * @param bytes The number of bytes written.
+   */
+  public void transferred(Call call, int bytes) {
+    if (call != null)
+      call.bytes = bytes;
+  }
+
+  /**
+   * Called by the exception handler after a system call has been
+   * serviced, with the result (if any) already in r2.
+   *
+   * @param call The call, as returned by enter().
+   */
+  public void leave(Call call) {
+    if (flags == 0 || call == null)
+      return;
+    int callType = call.type;
+    int latency = Machine.stats.totalTicks - call.start;
+    if (call.text != null) {
+      String result = "";
+      if (returnsValue(callType))
+	result = " = " + Machine.readRegister(2);
+      Debug.println('+', call.text + result + " <" + latency
+		    + " ticks>");
+    }
+    if ((flags & STATS) != 0 && callType >= 0 && callType < MaxSyscall) {
+      counts[callType]++;
+      totalTicks[callType] += latency;
+      if (callType == Syscall.SC_Read)
+	totalBytes[callType] += Math.max(0, Machine.readRegister(2));
+      else if (callType == Syscall.SC_Write)
+	totalBytes[callType] += Math.max(0, call.bytes);
+      int bucket = 0;
+      while (bucket < NumBuckets - 1 && latency >= (1 << bucket))
+	bucket++;
+      histograms[callType][bucket]++;
+    }
+  }
+
+  /**
+   * Print the counts and latency histograms gathered for this address
+   * space, if any.
+   *
+   * @param name Name of the process, for the heading.
+   */
+  public void print(String name) {
+    if (counts == null)
+      return;
+    Debug.println('+', "System calls of " + name + ":");
+    Debug.println('+', "  call         count    ticks   avg ticks  avg bytes");
+    for (int type = 0; type < MaxSyscall; type++) {
+      if (counts[type] == 0)
+	continue;
+      String avgBytes = "";
+      if (type == Syscall.SC_Read || type == Syscall.SC_Write)
+	avgBytes = String.format("%10.1f",
+				 (double)totalBytes[type] / counts[type]);
+      Debug.print('+', String.format("  %-10s %7d %8d %11.1f %s\n",
+				     nameOf(type), counts[type],
+				     totalTicks[type],
+				     (double)totalTicks[type] / counts[type],
+				     avgBytes));
+      for (int b = 0; b < NumBuckets; b++) {
+	if (histograms[type][b] == 0)
+	  continue;
+	String range = b == 0 ? "0" : (1 << (b-1)) + "-" + ((1 << b) - 1);
+	Debug.print('+', String.format("      %13s ticks: %7d\n",
+				       range, histograms[type][b]));
+      }
+    }
+  }
+
+  /**
+   * Get the printable name of a system call.
+   *
+   * @param type The system call code.
+   * @return The name of the system call.
+   */
+  public static String nameOf(int type) {
+    if (type >= 0 && type < names.length)
+      return names[type];
+    return "Syscall" + type;
+  }
+
+  /**
+   * Does a system call put a result into r2?
+   */
+  private static boolean returnsValue(int type) {
+    switch (type) {
+    case Syscall.SC_Exec:
+    case Syscall.SC_Join:
+    case Syscall.SC_Open:
+    case Syscall.SC_Read:
+    case Syscall.SC_Fork:
+    case Syscall.SC_ForkProcess:
+    case Syscall.SC_Sbrk:
+    case Syscall.SC_Mmap:
+    case Syscall.SC_Munmap:
+    case Syscall.SC_Pipe:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * Decode a system call and its arguments from the user registers.
+   */
+  private static String decode(int type) {
+    int a0 = Machine.readRegister(4);
+    int a1 = Machine.readRegister(5);
+    int a2 = Machine.readRegister(6);
+    String args;
+
+    switch (type) {
+    case Syscall.SC_Exit:
+    case Syscall.SC_Join:
+    case Syscall.SC_Close:
+    case Syscall.SC_Trace:
+    case Syscall.SC_Sbrk:
+      args = Integer.toString(a0);
+      break;
+    case Syscall.SC_Exec:
+    case Syscall.SC_Create:
+    case Syscall.SC_Open:
+    case Syscall.SC_Remove:
+      args = stringArg(a0);
+      break;
+    case Syscall.SC_Read:
+    case Syscall.SC_Write:
+      args = hex(a0) + ", " + a1 + ", " + a2;
+      break;
+    case Syscall.SC_Mmap:
+      args = a0 + ", " + a1;
+      break;
+    case Syscall.SC_GetRUsage:
+    case Syscall.SC_Fork:
+    case Syscall.SC_Munmap:
+    case Syscall.SC_Pipe:
+      args = hex(a0);
+      break;
+    default:
+      args = "";
+      break;
+    }
+    return nameOf(type) + "(" + args + ")";
+  }
+
+  private static String hex(int value) {
+    return "0x" + Integer.toHexString(value);
+  }
+
+  /**
+   * Decode a NUL-terminated string argument from user memory, quoted
+   * and truncated for printing.
+   */
+  private static String stringArg(int addr) {
+    AddrSpace space = ((UserThread)Scheduler.currentThread()).space;
+    String s = space.copyInString(addr, MaxStringArg);
+    if (s != null)
+      return "\"" + s + "\"";
+    byte prefix[] = new byte[MaxStringArg];
+    if (space.copyIn(addr, prefix, 0, MaxStringArg) < MaxStringArg)
+      return hex(addr);
+    StringBuffer sb = new StringBuffer("\"");
+    for (int i = 0; i < MaxStringArg; i++)
+      sb.append((char)(prefix[i] & 0xff));
+    return sb.append("\"...").toString();
+  }
+}
@@ -0,0 +1,228 @@
+// TLBManager.java
+//	Software management of the translation lookaside buffer.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+import nachos.machine.Interrupt;
+import nachos.machine.Machine;
+import nachos.machine.TranslationEntry;
+
+/**
+ * When the machine is configured with a TLB (Machine.getTLB() returns
+ * non-null), the hardware translates addresses only through the TLB,
+ * and every miss raises a PageFaultException.  This class implements
+ * the kernel side of that arrangement: the miss handler refills a TLB
+ * entry from the page table of the current address space (bringing the
+ * page into memory first, if necessary), choosing the entry to replace
+ * round-robin.
+ *
+ * The hardware sets the use and dirty bits in the TLB entry, not in the
+ * page table, so those bits are copied back into the page table entry
+ * whenever a TLB entry is replaced or invalidated, and also by sync(),
+ * which the Pager calls before it consults the page tables.  The TLB
+ * is flushed on a context switch only if the incoming thread runs in a
+ * different address space from the one whose translations it holds.
+ *
+ * If the machine has no TLB, none of this does anything.  All methods
+ * must be called with interrupts disabled.
+ */
+public class TLBManager {
+
+  /** The page table entries cached in each TLB slot. */
+  private static TranslationEntry cached[] =
+    new TranslationEntry[Machine.TLBSize];
+
+  /** The address space whose translations the TLB holds, if any. */
+  private static AddrSpace owner = null;
+
+  /** The slot to be replaced next. */
+  private static int next = 0;
+
+  /** Number of TLB misses. */
+  private static int numMisses = 0;
+
+  /** Number of misses that also required the page to be brought in. */
+  private static int numPageIns = 0;
+
+  /** Number of TLB flushes on context switches. */
+  private static int numFlushes = 0;
+
+  /** Total host time spent refilling, in nanoseconds. */
+  private static long refillNanos = 0;
+
+  /** Has the report been arranged for? */
+  private static boolean reporting = false;
+
+  /**
+   * @return true if the machine has a software-managed TLB.
+   */
+  public static boolean enabled() {
+    return Machine.getTLB() != null;
+  }
+
+  /**
+   * Handle a TLB miss by loading the translation for the faulting
+   * address from the page table of an address space.
+   *
+   * @param space The address space of the faulting thread.
+   * @param vaddr The virtual address that missed.
+   * @return true if the translation was loaded and the faulting
+   * instruction can be restarted, false if the address is invalid or
+   * the page could not be brought in.
+   */
+  public static boolean refill(AddrSpace space, int vaddr) {
+    long start = System.nanoTime();
+    if (!reporting) {
+      reporting = true;
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+	  public void run() {
+	    report();
+	  }
+	});
+    }
+    numMisses++;
+    int vpn = vaddr / Machine.PageSize;
+
+    while (true) {
+      TranslationEntry entry = space.getEntry(vpn);
+      if (entry == null)
+	return false;
+      if (!entry.valid) {
+	// A real page fault: bring the page in (this may block).
+	numPageIns++;
+	int oldLevel = Interrupt.setLevel(Interrupt.IntOn);
+	boolean ok = space.handlePageFault(vaddr);
+	Interrupt.setLevel(oldLevel);
+	if (!ok)
+	  return false;
+	continue;		// it may have been evicted again meanwhile
+      }
+
+      switchTo(space);
+      TranslationEntry tlb[] = Machine.getTLB();
+      int slot = next;
+      next = (next + 1) % tlb.length;
+      writeBack(slot);
+      tlb[slot].virtualPage = entry.virtualPage;
+      tlb[slot].physicalPage = entry.physicalPage;
+      tlb[slot].readOnly = entry.readOnly;
+      tlb[slot].use = false;
+      tlb[slot].dirty = false;
+      tlb[slot].valid = true;
+      cached[slot] = entry;
+      refillNanos += System.nanoTime() - start;
+      return true;
+    }
+  }
+
+  /**
+   * Make the TLB hold translations for an address space, flushing it
+   * if it holds those of a different one.  Called on context switches.
+   *
+   * @param space The address space about to run.
+   */
+  public static void switchTo(AddrSpace space) {
+    if (!enabled() || owner == space)
+      return;
+    if (owner != null)
+      numFlushes++;
+    flush();
+    owner = space;
+  }
+
+  /**
+   * Write back and invalidate every TLB entry.
+   */
+  public static void flush() {
+    if (!enabled())
+      return;
+    TranslationEntry tlb[] = Machine.getTLB();
+    for (int slot = 0; slot < tlb.length; slot++) {
+      writeBack(slot);
+      tlb[slot].valid = false;
+    }
+    owner = null;
+  }
+
+  /**
+   * Flush the TLB if it holds translations for an address space that
+   * is being destroyed.
+   *
+   * @param space The address space.
+   */
+  public static void forget(AddrSpace space) {
+    if (enabled() && owner == space)
+      flush();
+  }
+
+  /**
+   * Invalidate the TLB entry, if any, for a page that is about to be
+   * evicted, first writing its use and dirty bits back.
+   *
+   * @param space The address space of the page.
+   * @param vpn The virtual page.
+   */
+  public static void invalidate(AddrSpace space, int vpn) {
+    if (!enabled() || owner != space)
+      return;
+    TranslationEntry tlb[] = Machine.getTLB();
+    for (int slot = 0; slot < tlb.length; slot++) {
+      if (tlb[slot].valid && tlb[slot].virtualPage == vpn) {
+	writeBack(slot);
+	tlb[slot].valid = false;
+      }
+    }
+  }
+
+  /**
+   * Copy the use and dirty bits of every valid TLB entry back into the
+   * page table, so that the page table is up to date.
+   */
+  public static void sync() {
+    if (!enabled())
+      return;
+    TranslationEntry tlb[] = Machine.getTLB();
+    for (int slot = 0; slot < tlb.length; slot++) {
+      writeBack(slot);
+      tlb[slot].use = false;
+      tlb[slot].dirty = false;
+    }
+  }
+
+  /**
+   * Copy the use and dirty bits of a TLB entry back into the page table
+   * entry from which it was loaded.
+   */
+  private static void writeBack(int slot) {
+    TranslationEntry entry = Machine.getTLB()[slot];
+    if (!entry.valid || cached[slot] == null)
+      return;
+    if (entry.use)
+      cached[slot].use = true;
+    if (entry.dirty)
+      cached[slot].dirty = true;
+  }
+
+  /**
+   * Print the miss count, an estimate of the hit rate, and the
+   * average cost of a refill.
+   */
+  private static void report() {
+    int userTicks = Machine.stats.userTicks;
+    System.out.println("\nTLB: " + Machine.TLBSize + " entries, "
+		       + numMisses + " misses (" + numPageIns
+		       + " needing a page-in), " + numFlushes + " flushes");
+    if (userTicks > 0)
+      System.out.println(String.format
+	("  hit rate at least %.2f%% (one reference per instruction)",
+	 100.0 * Math.max(0, userTicks - numMisses) / userTicks));
+    if (numMisses > 0)
+      System.out.println(String.format
+	("  refill cost: %.1f us host time on average",
+	 refillNanos / 1e3 / numMisses));
+  }
+}
@@ -0,0 +1,74 @@
+// TextCache.java
+//	Sharing of the code pages of an executable among the address
+//	spaces running it.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import nachos.machine.TranslationEntry;
+
+/**
+ * The text cache remembers which frame holds each page of code of each
+ * executable, so that when another address space running the same
+ * executable faults on that page, it can simply map the frame (read-only,
+ * as a sharer; see PhysicalMemoryManager.shareFrame()) rather than read
+ * the page from the executable again.  Only pages that lie entirely
+ * within the code segment are shared, since any others may be written.
+ *
+ * An executable is identified by the key of its image in the
+ * ExecImageCache, made up of its name, length and modification stamp;
+ * one without a key is not shared.  The cache does not hold on to
+ * frames itself: a frame is freed when the last address space mapping it exits, or is
+ * evicted like any other, so an entry is checked when it is looked up,
+ * by asking whether the frame's owner still maps the page there, and
+ * dropped if not.
+ *
+ * All methods must be called with interrupts disabled.
+ */
+class TextCache {
+
+  /** Frame holding each cached page, keyed by executable and page. */
+  private static final Map<String, Integer> frames =
+    new HashMap<String, Integer>();
+
+  /**
+   * Find the frame holding a page of code.
+   *
+   * @param key The key identifying the executable.
+   * @param vpn The virtual page.
+   * @return The frame, or -1 if the page is not in memory.
+   */
+  static int lookup(String key, int vpn) {
+    String page = key + "@" + vpn;
+    Integer frame = frames.get(page);
+    if (frame == null)
+      return -1;
+    int f = frame.intValue();
+    AddrSpace owner =
+      PhysicalMemoryManager.getPhysicalMemoryManager().getOwner(f);
+    TranslationEntry entry = owner == null ? null : owner.getEntry(vpn);
+    if (entry == null || !entry.valid || entry.physicalPage != f
+	|| !key.equals(owner.getTextKey())) {
+      frames.remove(page);	// freed, or evicted, since it was cached
+      return -1;
+    }
+    return f;
+  }
+
+  /**
+   * Note that a page of code has been read into a frame.
+   *
+   * @param key The key identifying the executable.
+   * @param vpn The virtual page.
+   * @param frame The frame.
+   */
+  static void insert(String key, int vpn, int frame) {
+    frames.put(key + "@" + vpn, Integer.valueOf(frame));
+  }
+}
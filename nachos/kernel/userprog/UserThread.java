@@ -33,6 +33,12 @@ public class UserThread extends NachosThread {
   /** User-level CPU register state. */
   private int userRegisters[] = new int[Machine.NumTotalRegs];
 
+  /**
+   * Top of the stack given to this thread by Syscall.fork(), or -1 if
+   * it runs on the stack set up by AddrSpace.initRegisters().
+   */
+  int stackTop = -1;
+
   /**
    * Initialize a new user thread.
    *
@@ -51,6 +57,9 @@ public class UserThread extends NachosThread {
    * Save the CPU state of a user program on a context switch.
    */
   public void saveState() {
+    // Charge the CPU time and I/O of this interval to the address space.
+    space.usage.endInterval();
+
     // Save state associated with the address space.
     space.saveState();  
 
@@ -75,5 +84,8 @@ public class UserThread extends NachosThread {
 
     // Restore state associated with the address space.
     space.restoreState();
+
+    // Start charging activity to the address space again.
+    space.usage.startInterval();
   }
 }
@@ -0,0 +1,88 @@
+// WSClockPolicy.java
+//	WSClock page replacement.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog;
+
+/**
+ * WSClock combines the clock algorithm with the working set model.
+ * Each frame records the virtual time at which its page was last seen
+ * to be referenced.  The hand sweeps around the frames: a referenced
+ * page has its time of last use updated and its reference bit cleared;
+ * an unreferenced page whose age exceeds tau is out of the working set,
+ * and if it is clean it is evicted at once.  If a whole turn finds no
+ * clean page outside the working set, the first dirty one found is
+ * taken, or, failing that, the page that was used least recently.
+ */
+public class WSClockPolicy implements ReplacementPolicy {
+
+  /** Default working set window, in ticks. */
+  public static final int DefaultTau = 5000;
+
+  /** The working set window, in ticks. */
+  private final int tau;
+
+  /** Virtual time at which each frame's page was last referenced. */
+  private int lastUse[];
+
+  /** The frame at which the clock hand currently points. */
+  private int hand = 0;
+
+  /**
+   * Create a WSClock policy with the default working set window.
+   */
+  public WSClockPolicy() {
+    this(DefaultTau);
+  }
+
+  /**
+   * Create a WSClock policy.
+   *
+   * @param tau The working set window, in ticks.
+   */
+  public WSClockPolicy(int tau) {
+    this.tau = tau;
+  }
+
+  public String getName() {
+    return "wsclock";
+  }
+
+  public void loaded(Frames frames, int frame) {
+    if (lastUse == null)
+      lastUse = new int[frames.numFrames()];
+    lastUse[frame] = frames.now();
+  }
+
+  public void tick(Frames frames) { }
+
+  public int chooseVictim(Frames frames) {
+    int numFrames = frames.numFrames();
+    if (lastUse == null)
+      lastUse = new int[numFrames];
+    int now = frames.now();
+    int dirtyOld = -1, oldest = -1;
+
+    for (int i = 0; i < numFrames; i++) {
+      int frame = hand;
+      hand = (hand + 1) % numFrames;
+      if (!frames.isResident(frame))
+	continue;
+      if (frames.isReferenced(frame)) {
+	lastUse[frame] = now;
+	frames.clearReferenced(frame);
+      } else if (now - lastUse[frame] > tau) {
+	if (!frames.isDirty(frame))
+	  return frame;
+	if (dirtyOld == -1)
+	  dirtyOld = frame;
+      }
+      if (oldest == -1 || lastUse[frame] < lastUse[oldest])
+	oldest = frame;
+    }
+    return dirtyOld != -1 ? dirtyOld : oldest;
+  }
+}
@@ -0,0 +1,161 @@
+// FrameAllocatorTest.java
+//	Microbenchmark comparing the PhysicalMemoryManager with the
+//	bitmap-based frame allocator it replaced.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog.test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import nachos.Debug;
+import nachos.kernel.filesys.BitMap;
+import nachos.kernel.userprog.AddrSpace;
+import nachos.kernel.userprog.PhysicalMemoryManager;
+
+/**
+ * This test times the PhysicalMemoryManager against the allocator it
+ * replaced, which kept free frames in a BitMap, counted the free frames
+ * with numClear() on every request, and then called find() once per
+ * page.  Both allocators are driven through the same pseudo-random
+ * workload: processes of random sizes are created until memory is
+ * full, then a random half of them exit, and so on.  The test is run
+ * for several memory sizes, to show how the cost per page grows with
+ * the size of memory.
+ *
+ * The test is started with the -fa command-line option.  It runs
+ * entirely in the kernel, without simulated time passing.
+ */
+public class FrameAllocatorTest {
+
+  /** Memory sizes, in frames, at which the allocators are compared. */
+  private static final int sizes[] = { 128, 1024, 8192, 32768 };
+
+  /** Largest process size, in pages. */
+  private static final int MaxProcessPages = 64;
+
+  /** Number of processes created in each run. */
+  private static final int NumProcesses = 20000;
+
+  /** Seed for the workload, so that both allocators see the same one. */
+  private static final long Seed = 306;
+
+  /** Address spaces used as owners of the frames. */
+  private static final AddrSpace owners[] = new AddrSpace[8];
+
+  /**
+   * The bitmap-based allocator formerly used by the
+   * PhysicalMemoryManager, kept here for comparison.
+   */
+  private static class BitMapAllocator {
+    private BitMap memoryMap;
+
+    BitMapAllocator(int numFrames) {
+      memoryMap = new BitMap(numFrames);
+    }
+
+    int[] allocateMemory(int numPages) {
+      int memoryLocations[] = new int[numPages];
+      if (numPages > memoryMap.numClear())
+	return null;
+      for (int i = 0; i < numPages; i++)
+	memoryLocations[i] = memoryMap.find();
+      return memoryLocations;
+    }
+
+    void freeMemory(int memoryLocations[]) {
+      for (int i = 0; i < memoryLocations.length; i++)
+	memoryMap.clear(memoryLocations[i]);
+    }
+  }
+
+  /**
+   * Run the workload against one of the two allocators.
+   *
+   * @param numFrames The size of memory, in frames.
+   * @param useBitMap true to time the old allocator, false to time
+   * the PhysicalMemoryManager.
+   * @return The average time, in nanoseconds, to allocate and free a page.
+   */
+  private static double run(int numFrames, boolean useBitMap) {
+    BitMapAllocator old = new BitMapAllocator(numFrames);
+    PhysicalMemoryManager pmm = new PhysicalMemoryManager(numFrames);
+    ArrayList<int[]> live = new ArrayList<int[]>();
+    Random random = new Random(Seed);
+    long pages = 0;
+
+    long start = System.nanoTime();
+    for (int p = 0; p < NumProcesses; p++) {
+      int numPages = 1 + random.nextInt(MaxProcessPages);
+      int frames[] = useBitMap ? old.allocateMemory(numPages)
+	: pmm.allocateMemory(owners[p % owners.length], numPages);
+      if (frames != null) {
+	live.add(frames);
+	pages += numPages;
+	continue;
+      }
+
+      // Memory is full: let about half of the processes exit.
+      for (int i = live.size() - 1; i >= 0; i--) {
+	if (random.nextBoolean()) {
+	  int victim[] = live.remove(i);
+	  if (useBitMap)
+	    old.freeMemory(victim);
+	  else
+	    pmm.freeMemory(victim);
+	}
+      }
+    }
+    for (int i = 0; i < live.size(); i++) {
+      if (useBitMap)
+	old.freeMemory(live.get(i));
+      else
+	pmm.freeMemory(live.get(i));
+    }
+    long elapsed = System.nanoTime() - start;
+
+    if (!useBitMap)
+      Debug.ASSERT(pmm.numFree() == numFrames,
+		   "FrameAllocatorTest: frames leaked");
+    return pages == 0 ? 0 : (double)elapsed / pages;
+  }
+
+  /**
+   * Run the comparison for each memory size and print the results.
+   */
+  public static void run() {
+    for (int i = 0; i < owners.length; i++)
+      owners[i] = new AddrSpace();
+
+    // Warm up the JIT, so that the first size is not penalized.
+    run(sizes[0], true);
+    run(sizes[0], false);
+
+    Debug.println('+', "Frame allocator: ns per page allocated and freed");
+    Debug.println('+', "    frames     bitmap  free stack   speedup");
+    for (int i = 0; i < sizes.length; i++) {
+      double oldNanos = run(sizes[i], true);
+      double newNanos = run(sizes[i], false);
+      Debug.print('+', String.format("  %8d %10.1f %11.1f %8.1fx\n",
+				     sizes[i], oldNanos, newNanos,
+				     oldNanos / newNanos));
+    }
+  }
+
+  /**
+   * Entry point for the test.  If "-fa" is included in the
+   * command-line arguments, then run the comparison; otherwise,
+   * do nothing.
+   *
+   * @param args Command-line arguments.
+   */
+  public static void start(String[] args) {
+    for (int i=0; i<args.length; i++) {
+      if (args[i].equals("-fa"))
+	run();
+    }
+  }
+}
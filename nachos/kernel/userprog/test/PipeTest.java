@@ -0,0 +1,135 @@
+// PipeTest.java
+//	Producer/consumer throughput test of kernel pipes.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog.test;
+
+import nachos.Debug;
+import nachos.kernel.threads.Scheduler;
+import nachos.kernel.threads.Semaphore;
+import nachos.kernel.userprog.Pipe;
+import nachos.machine.Machine;
+import nachos.machine.NachosThread;
+
+/**
+ * This test runs a producer thread and a consumer thread through a
+ * Pipe, for each of several buffer sizes, and prints how many bytes
+ * got through per tick of simulated time, and how many of them were
+ * passed straight from the producer to a consumer that was already
+ * waiting.  The producer writes in chunks bigger than those the
+ * consumer reads, and the consumer checks that every byte arrives,
+ * in order.
+ *
+ * The test is started with the -pt command-line option.  It uses
+ * kernel threads and buffers only; test/pipebench.c exercises the same
+ * code, and the direct copy between user pages, from user processes
+ * through SC_Pipe.
+ */
+public class PipeTest {
+
+  /** Buffer sizes, in bytes, at which the pipe is measured. */
+  private static final int sizes[] = { 16, 64, 256, 1024, 4096 };
+
+  /** Number of bytes sent through the pipe in each run. */
+  private static final int NumBytes = 64 * 1024;
+
+  /** Size of each write by the producer. */
+  private static final int WriteSize = 700;
+
+  /** Size of each read by the consumer. */
+  private static final int ReadSize = 300;
+
+  /** Signalled by the consumer when it has read everything. */
+  private static final Semaphore finished =
+    new Semaphore("PipeTest finished", 0);
+
+  /** Number of bytes received out of order in the current run. */
+  private static int numErrors;
+
+  /**
+   * Send NumBytes bytes through a pipe.
+   *
+   * @param size The size of the pipe's buffer.
+   * @return The number of ticks taken.
+   */
+  private static int run(int size) {
+    final Pipe pipe = new Pipe(size);
+    int start = Machine.stats.totalTicks;
+    numErrors = 0;
+
+    Scheduler.readyToRun(new NachosThread("PipeTest producer",
+					  new Runnable() {
+      public void run() {
+	byte buffer[] = new byte[WriteSize];
+	for (int sent = 0; sent < NumBytes; ) {
+	  int n = Math.min(WriteSize, NumBytes - sent);
+	  for (int i = 0; i < n; i++)
+	    buffer[i] = (byte)(sent + i);
+	  sent += pipe.writeEnd.write(buffer, 0, n);
+	}
+	pipe.writeEnd.close();
+	Scheduler.finish();
+      }
+    }));
+
+    Scheduler.readyToRun(new NachosThread("PipeTest consumer",
+					  new Runnable() {
+      public void run() {
+	byte buffer[] = new byte[ReadSize];
+	int received = 0, n;
+	while ((n = pipe.readEnd.read(buffer, 0, ReadSize)) > 0) {
+	  for (int i = 0; i < n; i++)
+	    if (buffer[i] != (byte)(received + i))
+	      numErrors++;
+	  received += n;
+	}
+	if (received != NumBytes)
+	  numErrors++;
+	pipe.readEnd.close();
+	finished.V();
+	Scheduler.finish();
+      }
+    }));
+
+    finished.P();
+    Debug.ASSERT(numErrors == 0, "PipeTest: bytes lost or out of order");
+    return Machine.stats.totalTicks - start;
+  }
+
+  /**
+   * Run the test for each buffer size and print the results.
+   */
+  public static void run() {
+    Debug.println('+', "Pipe: " + NumBytes + " bytes in " + WriteSize
+		  + "-byte writes, " + ReadSize + "-byte reads");
+    Debug.println('+', "    buffer      ticks  bytes/tick");
+    for (int i = 0; i < sizes.length; i++) {
+      int ticks = run(sizes[i]);
+      Debug.print('+', String.format("  %8d %10d %11.3f\n", sizes[i],
+				     ticks, (double)NumBytes / ticks));
+    }
+  }
+
+  /**
+   * Entry point for the test.  If "-pt" is included in the
+   * command-line arguments, then start a thread to run the test;
+   * otherwise, do nothing.
+   *
+   * @param args Command-line arguments.
+   */
+  public static void start(String[] args) {
+    for (int i=0; i<args.length; i++) {
+      if (args[i].equals("-pt")) {
+	Scheduler.readyToRun(new NachosThread("PipeTest", new Runnable() {
+	  public void run() {
+	    PipeTest.run();
+	    Scheduler.finish();
+	  }
+	}));
+      }
+    }
+  }
+}
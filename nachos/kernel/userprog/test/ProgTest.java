@@ -15,6 +15,8 @@ import nachos.machine.Machine;
 import nachos.kernel.Nachos;
 import nachos.kernel.threads.Scheduler;
 import nachos.kernel.userprog.AddrSpace;
+import nachos.kernel.userprog.ProcessTable;
+import nachos.kernel.userprog.Profiler;
 import nachos.kernel.userprog.UserThread;
 import nachos.kernel.filesys.OpenFile;
 
@@ -51,20 +53,24 @@ public class ProgTest implements Runnable {
    */
   public void run() {
     OpenFile executable;
-    
+    AddrSpace space = ((UserThread)Scheduler.currentThread()).space;
+
+    space.usage.startInterval();	// charge the exec to the program
     if((executable = Nachos.fileSystem.open(execName)) == null) {
 	Debug.println('+', "Unable to open executable file: " + execName);
 	Scheduler.finish();
 	return;
     }
 
-    AddrSpace space = ((UserThread)Scheduler.currentThread()).space;
-    if(space.exec(executable) == -1) {
+    if(space.exec(executable, execName) == -1) {
 	Debug.println('+', "Unable to read executable file: " + execName);
 	Scheduler.finish();
 	return;
     }
 
+    ProcessTable.add(space, null);
+    Profiler.start(space, execName);
+
     space.initRegisters();		// set the initial register values
     space.restoreState();		// load page table register
 
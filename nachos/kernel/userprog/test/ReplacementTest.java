@@ -0,0 +1,248 @@
+// ReplacementTest.java
+//	Trace-driven evaluation of page replacement policies.
+//
+// Copyright (c) 2003 State University of New York at Stony Brook.
+// All rights reserved.  See the COPYRIGHT file for copyright notice and
+// limitation of liability and disclaimer of warranty provisions.
+
+package nachos.kernel.userprog.test;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.StringTokenizer;
+
+import nachos.Debug;
+import nachos.kernel.userprog.Pager;
+import nachos.kernel.userprog.ReplacementPolicy;
+
+/**
+ * This test replays a page-reference trace, recorded with the
+ * -vmtrace option, against each of the replacement policies known to
+ * the Pager, and against Belady's optimal policy (which evicts the page
+ * whose next use is furthest in the future), for a range of memory
+ * sizes, and prints the fault rate of each.
+ *
+ * The policies are the very objects used by the kernel; only the
+ * memory they see is simulated.  A referenced page has its reference
+ * bit set, and also its dirty bit if the trace says it was modified.
+ *
+ * The test is started with the -vmsim <file> command-line option.
+ */
+public class ReplacementTest {
+
+  /** Virtual time of each reference. */
+  private int ticks[];
+
+  /** The page referenced: address space number and virtual page. */
+  private long pages[];
+
+  /** Was the page modified? */
+  private boolean writes[];
+
+  /** Number of distinct pages in the trace. */
+  private int numPages;
+
+  /**
+   * Memory, as seen by the policy being evaluated.
+   */
+  private static class SimulatedMemory implements ReplacementPolicy.Frames {
+    final long page[];
+    final boolean resident[], use[], dirty[];
+    final HashMap<Long, Integer> frameOf = new HashMap<Long, Integer>();
+    int now;
+
+    SimulatedMemory(int numFrames) {
+      page = new long[numFrames];
+      resident = new boolean[numFrames];
+      use = new boolean[numFrames];
+      dirty = new boolean[numFrames];
+    }
+
+    public int numFrames() { return page.length; }
+    public boolean isResident(int frame) { return resident[frame]; }
+    public boolean isReferenced(int frame) { return use[frame]; }
+    public void clearReferenced(int frame) { use[frame] = false; }
+    public boolean isDirty(int frame) { return dirty[frame]; }
+    public int now() { return now; }
+  }
+
+  /**
+   * Read a trace file.
+   *
+   * @param name The name of the file.
+   */
+  private ReplacementTest(String name) throws IOException {
+    BufferedReader in = new BufferedReader(new FileReader(name));
+    ArrayList<String[]> lines = new ArrayList<String[]>();
+    String line;
+    while ((line = in.readLine()) != null) {
+      StringTokenizer st = new StringTokenizer(line);
+      if (st.countTokens() == 4)
+	lines.add(new String[] { st.nextToken(), st.nextToken(),
+				 st.nextToken(), st.nextToken() });
+    }
+    in.close();
+
+    ticks = new int[lines.size()];
+    pages = new long[lines.size()];
+    writes = new boolean[lines.size()];
+    HashMap<Long, Integer> distinct = new HashMap<Long, Integer>();
+    for (int i = 0; i < ticks.length; i++) {
+      String fields[] = lines.get(i);
+      ticks[i] = Integer.parseInt(fields[0]);
+      pages[i] = ((long)Integer.parseInt(fields[1]) << 32)
+	| Integer.parseInt(fields[2]);
+      writes[i] = fields[3].equals("w");
+      distinct.put(Long.valueOf(pages[i]), Integer.valueOf(0));
+    }
+    numPages = distinct.size();
+  }
+
+  /**
+   * Replay the trace against a policy.
+   *
+   * @param policy The policy.
+   * @param numFrames The size of memory, in frames.
+   * @return The number of page faults.
+   */
+  private int simulate(ReplacementPolicy policy, int numFrames) {
+    SimulatedMemory memory = new SimulatedMemory(numFrames);
+    int faults = 0, nextFree = 0;
+    int lastTick = ticks.length > 0 ? ticks[0] : 0;
+
+    for (int i = 0; i < ticks.length; i++) {
+      memory.now = ticks[i];
+      if (memory.now - lastTick >= ReplacementPolicy.TickInterval) {
+	lastTick = memory.now;
+	policy.tick(memory);
+      }
+
+      Long key = Long.valueOf(pages[i]);
+      Integer f = memory.frameOf.get(key);
+      int frame;
+      if (f != null) {
+	frame = f.intValue();
+      } else {
+	faults++;
+	if (nextFree < numFrames) {
+	  frame = nextFree++;
+	} else {
+	  frame = policy.chooseVictim(memory);
+	  Debug.ASSERT(frame != -1, "ReplacementTest: no victim");
+	  memory.frameOf.remove(Long.valueOf(memory.page[frame]));
+	}
+	memory.page[frame] = pages[i];
+	memory.resident[frame] = true;
+	memory.use[frame] = false;
+	memory.dirty[frame] = false;
+	memory.frameOf.put(key, Integer.valueOf(frame));
+	policy.loaded(memory, frame);
+      }
+      memory.use[frame] = true;
+      if (writes[i])
+	memory.dirty[frame] = true;
+    }
+    return faults;
+  }
+
+  /**
+   * Replay the trace against Belady's optimal policy.
+   *
+   * @param numFrames The size of memory, in frames.
+   * @return The number of page faults.
+   */
+  private int simulateOptimal(int numFrames) {
+    // nextUse[i] is the index of the next reference to pages[i].
+    int nextUse[] = new int[pages.length];
+    HashMap<Long, Integer> following = new HashMap<Long, Integer>();
+    for (int i = pages.length - 1; i >= 0; i--) {
+      Long key = Long.valueOf(pages[i]);
+      Integer next = following.get(key);
+      nextUse[i] = next == null ? Integer.MAX_VALUE : next.intValue();
+      following.put(key, Integer.valueOf(i));
+    }
+
+    long page[] = new long[numFrames];
+    int frameNext[] = new int[numFrames];
+    HashMap<Long, Integer> frameOf = new HashMap<Long, Integer>();
+    int faults = 0, used = 0;
+
+    for (int i = 0; i < pages.length; i++) {
+      Long key = Long.valueOf(pages[i]);
+      Integer f = frameOf.get(key);
+      int frame;
+      if (f != null) {
+	frame = f.intValue();
+      } else {
+	faults++;
+	if (used < numFrames) {
+	  frame = used++;
+	} else {
+	  frame = 0;
+	  for (int j = 1; j < numFrames; j++)
+	    if (frameNext[j] > frameNext[frame])
+	      frame = j;
+	  frameOf.remove(Long.valueOf(page[frame]));
+	}
+	page[frame] = pages[i];
+	frameOf.put(key, Integer.valueOf(frame));
+      }
+      frameNext[frame] = nextUse[i];
+    }
+    return faults;
+  }
+
+  /**
+   * Print the fault rates of all the policies, for memory sizes from
+   * 4 frames up to the number of distinct pages in the trace.
+   */
+  private void report() {
+    Debug.println('+', "Page trace: " + ticks.length + " references to "
+		  + numPages + " pages");
+    StringBuffer heading = new StringBuffer("  frames      opt");
+    for (int p = 0; p < Pager.policyNames.length; p++)
+      heading.append(String.format(" %8s", Pager.policyNames[p]));
+    Debug.println('+', "Fault rate (%) by replacement policy");
+    Debug.println('+', heading.toString());
+
+    for (int numFrames = 4; numFrames < numPages * 2; numFrames *= 2) {
+      int frames = Math.min(numFrames, numPages);
+      StringBuffer row = new StringBuffer(String.format("  %6d %8.2f",
+		frames, 100.0 * simulateOptimal(frames) / ticks.length));
+      for (int p = 0; p < Pager.policyNames.length; p++) {
+	ReplacementPolicy policy = Pager.createPolicy(Pager.policyNames[p]);
+	row.append(String.format(" %8.2f",
+		100.0 * simulate(policy, frames) / ticks.length));
+      }
+      Debug.println('+', row.toString());
+      if (frames == numPages)
+	break;
+    }
+  }
+
+  /**
+   * Entry point for the test.  If "-vmsim <file>" is included in the
+   * command-line arguments, then replay the trace in the file;
+   * otherwise, do nothing.
+   *
+   * @param args Command-line arguments.
+   */
+  public static void start(String[] args) {
+    for (int i=0; i<args.length; i++) {
+      if (args[i].equals("-vmsim")) {
+	Debug.ASSERT((i<args.length-1), "usage: -vmsim <file>");
+	String name = args[++i];
+	try {
+	  new ReplacementTest(name).report();
+	} catch (IOException x) {
+	  Debug.println('+', "Unable to read page trace file: " + name);
+	} catch (NumberFormatException x) {
+	  Debug.println('+', "Malformed page trace file: " + name);
+	}
+      }
+    }
+  }
+}
@@ -1,16 +1,20 @@
 package nachos.util;
 
 import java.io.*;
+import java.util.*;
 
 /**
  * Class for reading COFF files.
  */
 
-class CoffInput {
+public class CoffInput {
 
     /** Number of sections. */
     private short numSections;
 
+    /** File pointer to the symbolic header, or 0 if there is none. */
+    private int symPtr;
+
     /** Data we care about in a COFF section. */
     public static class Section {
 	String name;		// Name of section
@@ -23,11 +27,26 @@ class CoffInput {
     /** Table of all sections. */
     private Section[] sections;
 
+    /** Data we care about in a COFF (ECOFF) external symbol. */
+    public static class Symbol {
+	public String name;	// Name of symbol
+	public int value;	// Address of symbol
+    };
+
     /* Magic numbers that can appear in COFF file. */
     private static final int MIPSELMAGIC = 0x0162;
     private static final int OMAGIC = 0407;
     private static final int SOMAGIC = 0x0701;
 
+    /* Magic number of the MIPS symbolic header. */
+    private static final int SYMHMAGIC = 0x7009;
+
+    /* Symbol types and storage classes that denote code addresses. */
+    private static final int stProc = 6;
+    private static final int stStaticProc = 14;
+    private static final int stLabel = 8;
+    private static final int scText = 1;
+
     /** Underlying Java file. */
     private RandomAccessFile inFile;
 
@@ -82,7 +101,7 @@ class CoffInput {
 	    throw new Exception("File is not a MIPSEL COFF file");
 	numSections = readShort();	// number of sections
 	readInt(); 			// time & date stamp
-	readInt();			// file pointer to symbolic header
+	symPtr = readInt();		// file pointer to symbolic header
 	readInt();			// sizeof(symbolic hdr)
 	readShort();			// sizeof(optional hdr)
 	readShort();			// flags
@@ -147,6 +166,79 @@ class CoffInput {
 	s.data = readBytes(s.size);
     }
 
+    /**
+     * Read the external symbols that name code addresses (procedures
+     * and text labels) from the symbolic header of the COFF file.
+     * Only the file header needs to have been read; the section data
+     * is not required.
+     *
+     * @return The symbols, sorted by increasing address.  The array
+     * is empty if the file carries no symbolic information.
+     */
+    public Symbol[] readSymbols() throws Exception {
+	inFile.seek(0);
+	readFileHdr();
+	if(symPtr == 0)
+	    return(new Symbol[0]);
+
+	inFile.seek(symPtr);
+	short magic = readShort();	// magic number
+	if(magic != SYMHMAGIC)
+	    throw new Exception("Bad magic in COFF symbolic header");
+	readShort();			// version stamp
+	int[] hdr = new int[23];	// ilineMax ... cbExtOffset
+	for(int i = 0; i < hdr.length; i++)
+	    hdr[i] = readInt();
+	int cbSsExtOffset = hdr[16];	// offset to external strings
+	int iextMax = hdr[21];		// number of external symbols
+	int cbExtOffset = hdr[22];	// offset to external symbols
+
+	ArrayList<Symbol> syms = new ArrayList<Symbol>();
+	for(int i = 0; i < iextMax; i++) {
+	    inFile.seek(cbExtOffset + 16 * i);
+	    readShort();		// flags
+	    readShort();		// file descriptor index
+	    int iss = readInt();	// index into external strings
+	    int value = readInt();	// value (address)
+	    int bits = readInt();	// st:6, sc:5, reserved:1, index:20
+	    int st = bits & 0x3f;
+	    int sc = (bits >> 6) & 0x1f;
+	    if((st != stProc && st != stStaticProc && st != stLabel)
+	       || sc != scText)
+		continue;
+	    Symbol sym = new Symbol();
+	    sym.name = readString(cbSsExtOffset + iss);
+	    sym.value = value;
+	    syms.add(sym);
+	}
+	Symbol[] result = syms.toArray(new Symbol[syms.size()]);
+	Arrays.sort(result, new Comparator<Symbol>() {
+		public int compare(Symbol a, Symbol b) {
+		    return(a.value < b.value ? -1 : a.value > b.value ? 1 : 0);
+		}
+	    });
+	return(result);
+    }
+
+    /**
+     * Close the underlying file.  No further reading may be done.
+     */
+    public void close() throws IOException {
+	inFile.close();
+    }
+
+    /**
+     * Read a NUL-terminated string starting at a given file offset.
+     */
+    private String readString(int pos) throws IOException {
+	StringBuffer sb = new StringBuffer();
+	inFile.seek(pos);
+	int ch;
+	while((ch = inFile.read()) > 0)
+	    sb.append((char)ch);
+	return(sb.toString());
+    }
+
     private int readInt() throws IOException {
 	byte[] buf = new byte[4];
 	inFile.read(buf);
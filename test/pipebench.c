@@ -0,0 +1,50 @@
+#include "syscall.h"
+
+/* Producer/consumer throughput of a pipe between two processes.
+ *
+ * The parent writes NWRITES blocks of WSIZE bytes, each byte 1, into a
+ * pipe; a child made with ForkProcess reads them RSIZE bytes at a
+ * time, adds up every byte it gets, and exits with the sum.  The
+ * parent joins the child and exits with the child's status, which is
+ * NWRITES * WSIZE (20480) if every byte got through.  The kernel prints
+ * the pipe's throughput when both ends have been closed; run with
+ * -ps <bytes> to change the size of the pipe's buffer.
+ */
+
+#define NWRITES 40
+#define WSIZE 512
+#define RSIZE 300
+
+char data[WSIZE];
+char buf[RSIZE];
+
+int main()
+{
+	OpenFileId ends[2];
+	SpaceId child;
+	int i, n, sum;
+
+	for (i = 0; i < WSIZE; i++)
+		data[i] = 1;
+	if (Pipe(ends) < 0)
+		Exit(-1);
+
+	child = ForkProcess();
+	if (child == 0) {
+		/* consumer */
+		Close(ends[1]);
+		sum = 0;
+		while ((n = Read(buf, RSIZE, ends[0])) > 0) {
+			for (i = 0; i < n; i++)
+				sum += buf[i];
+		}
+		Exit(sum);
+	}
+
+	/* producer */
+	Close(ends[0]);
+	for (i = 0; i < NWRITES; i++)
+		Write(data, WSIZE, ends[1]);
+	Close(ends[1]);
+	Exit(Join(child));
+}
@@ -0,0 +1,49 @@
+#include "syscall.h"
+
+/* System call tracing with two threads in one address space.
+ *
+ * The main thread forks a thread and writes NBYTES bytes, each byte 1,
+ * into a pipe in one Write; the other thread reads them RSIZE bytes at
+ * a time.  Run with -strace -ps 16, so that the pipe's buffer holds
+ * less than the Write, and the two threads' calls block and overlap:
+ * the trace should show the one Write, with its 64 bytes, from the
+ * main thread, and four Reads of 16 bytes from the other.  The program
+ * exits with the number of bytes read, 64.
+ */
+
+#define NBYTES 64
+#define RSIZE 16
+
+OpenFileId ends[2];
+char data[NBYTES];
+char buf[RSIZE];
+int total;
+int done;
+
+void reader()
+{
+	int i, n;
+
+	for (i = 0; i < NBYTES / RSIZE; i++) {
+		n = Read(buf, RSIZE, ends[0]);
+		total += n;
+	}
+	done = 1;
+	Exit(9);
+}
+
+int main()
+{
+	int i;
+
+	for (i = 0; i < NBYTES; i++)
+		data[i] = 1;
+	if (Pipe(ends) < 0)
+		Exit(-1);
+
+	Fork(reader);
+	Write(data, NBYTES, ends[1]);
+	while (!done)
+		Yield();
+	Exit(total);
+}